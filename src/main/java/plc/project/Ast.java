@@ -11,6 +11,20 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    private int index = -1;
+
+    /**
+     * Returns the index in the source of the token this node starts at, or -1
+     * if it was not created by the Parser. It is not part of equality.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
@@ -125,6 +139,7 @@ public abstract class Ast {
         private final Optional<String> returnTypeName;
         private final List<Statement> statements;
         private Environment.Function function = null;
+        private Boolean scoped = null;
 
         public Method(String name, List<String> parameters, List<Statement> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
@@ -173,6 +188,17 @@ public abstract class Ast {
             this.function = function;
         }
 
+        /**
+         * Whether a call needs a scope of its own, i.e. the method has
+         * parameters or declares a variable at the top level of its body.
+         */
+        public boolean isScoped() {
+            if (scoped == null) {
+                scoped = !parameters.isEmpty() || Statement.declares(statements);
+            }
+            return scoped;
+        }
+
 
         @Override
         public boolean equals(Object obj) {
@@ -202,6 +228,19 @@ public abstract class Ast {
 
     public static abstract class Statement extends Ast {
 
+        /**
+         * Returns whether a block declares a variable directly, and so needs
+         * a scope of its own. Nested blocks are checked separately.
+         */
+        static boolean declares(List<Statement> statements) {
+            for (Statement statement : statements) {
+                if (statement instanceof Declaration) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         public static final class Expression extends Statement {
 
             private final Ast.Expression expression;
@@ -331,7 +370,8 @@ public abstract class Ast {
             private final Ast.Expression condition;
             private final List<Statement> thenStatements;
             private final List<Statement> elseStatements;
-
+            private Boolean thenScoped = null;
+            private Boolean elseScoped = null;
 
             public If(Ast.Expression condition, List<Statement> thenStatements, List<Statement> elseStatements) {
                 this.condition = condition;
@@ -351,6 +391,20 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            public boolean isThenScoped() {
+                if (thenScoped == null) {
+                    thenScoped = declares(thenStatements);
+                }
+                return thenScoped;
+            }
+
+            public boolean isElseScoped() {
+                if (elseScoped == null) {
+                    elseScoped = declares(elseStatements);
+                }
+                return elseScoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -376,6 +430,7 @@ public abstract class Ast {
             private final Ast.Expression condition;
             private final Statement increment;
             private final List<Statement> statements;
+            private Boolean scoped = null;
 
             public For(Statement initialization, Ast.Expression condition, Statement increment, List<Statement> statements) {
                 this.initialization = initialization;
@@ -400,6 +455,13 @@ public abstract class Ast {
                 return statements;
             }
 
+            public boolean isScoped() {
+                if (scoped == null) {
+                    scoped = declares(statements);
+                }
+                return scoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
 
@@ -446,6 +508,7 @@ public abstract class Ast {
 
             private final Ast.Expression condition;
             private final List<Statement> statements;
+            private Boolean scoped = null;
 
             public While(Ast.Expression condition, List<Statement> statements) {
                 this.condition = condition;
@@ -460,6 +523,13 @@ public abstract class Ast {
                 return statements;
             }
 
+            public boolean isScoped() {
+                if (scoped == null) {
+                    scoped = declares(statements);
+                }
+                return scoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -602,6 +672,7 @@ public abstract class Ast {
             private final Ast.Expression left;
             private final Ast.Expression right;
             private Environment.Type type = null;
+            private Comparison comparison = null;
 
             public Binary(String operator, Ast.Expression left, Ast.Expression right) {
                 this.operator = operator;
@@ -633,6 +704,18 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            /**
+             * The runtime comparison for this node, chosen from the operand
+             * types when first used, or null if the operator does not compare.
+             * It is not part of the node's value.
+             */
+            Comparison getComparison() {
+                if (comparison == null) {
+                    comparison = Comparison.of(this);
+                }
+                return comparison;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -716,11 +799,14 @@ public abstract class Ast {
             private final String name;
             private final List<Ast.Expression> arguments;
             private Environment.Function function = null;
+            private final Scope.CallCache callCache;
 
             public Function(Optional<Ast.Expression> receiver, String name, List<Ast.Expression> arguments) {
                 this.receiver = receiver;
                 this.name = name;
                 this.arguments = arguments;
+                //methods are looked up with the receiver as an extra argument
+                this.callCache = new Scope.CallCache(name, arguments.size() + (receiver.isPresent() ? 1 : 0));
             }
 
             public Optional<Ast.Expression> getReceiver() {
@@ -746,6 +832,14 @@ public abstract class Ast {
                 this.function = function;
             }
 
+            /**
+             * The runtime lookup cache for this call site, which is not part
+             * of the node's value.
+             */
+            public Scope.CallCache getCallCache() {
+                return callCache;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getFunction().getReturnType();
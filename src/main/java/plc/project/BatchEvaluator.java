@@ -0,0 +1,211 @@
+package plc.project;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a {@link ProgramImage} once per input record, in parallel.
+ *
+ * Records are arrays of input values, bound in order to the input names as
+ * constants in the program's globals. Random access lists of records are
+ * split with fork/join into ranges; each range is run by a single
+ * {@link Interpreter} that is re-executed per record with its inputs
+ * rebound, so no scopes or closures are built per record. Other record
+ * sources are read in chunks, each evaluated in parallel before the next is
+ * read. Results are written to an {@link Output} as they are produced.
+ */
+public final class BatchEvaluator {
+
+    //records per fork/join leaf and per chunk of a streamed source
+    private static final int LEAF = 1024;
+    private static final int CHUNK = 64 * LEAF;
+
+    private final ProgramImage image;
+    private final List<String> inputs;
+    private final ForkJoinPool pool;
+
+    public BatchEvaluator(ProgramImage image, List<String> inputs) {
+        this(image, inputs, ForkJoinPool.commonPool());
+    }
+
+    public BatchEvaluator(ProgramImage image, List<String> inputs, ForkJoinPool pool) {
+        this.image = image;
+        this.inputs = List.copyOf(inputs);
+        this.pool = pool;
+    }
+
+    /**
+     * Receives the result of each record, identified by its position in the
+     * source. It is called from several threads and in no particular order.
+     */
+    public interface Output {
+
+        void write(long record, Environment.PlcObject result);
+
+        /**
+         * Handles a record whose evaluation failed. By default the exception
+         * is rethrown, failing the whole batch.
+         */
+        default void fail(long record, RuntimeException exception) {
+            throw exception;
+        }
+
+    }
+
+    /**
+     * Evaluates every record, returning once all results are written.
+     */
+    public Result evaluate(Iterable<Object[]> records, Output output) {
+        long start = System.nanoTime();
+        long count = 0;
+        if (records instanceof List && records instanceof RandomAccess) {
+            List<Object[]> list = (List<Object[]>) records;
+            pool.invoke(new Range(list, 0, list.size(), 0, output));
+            count = list.size();
+        } else {
+            Iterator<Object[]> iterator = records.iterator();
+            List<Object[]> chunk = new ArrayList<>(CHUNK);
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == CHUNK || !iterator.hasNext()) {
+                    pool.invoke(new Range(chunk, 0, chunk.size(), count, output));
+                    count += chunk.size();
+                    chunk = new ArrayList<>(CHUNK);
+                }
+            }
+        }
+        return new Result(count, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Returns a view of columns of equal length as a list of records, the
+     * i-th record holding the i-th value of each column.
+     */
+    public static List<Object[]> columns(List<?>... columns) {
+        int size = columns.length == 0 ? 0 : columns[0].size();
+        for (List<?> column : columns) {
+            if (column.size() != size) {
+                throw new IllegalArgumentException("Columns must have the same length.");
+            }
+        }
+        return new Columns(columns, size);
+    }
+
+    private final class Range extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Object[]> records;
+        private final int from;
+        private final int to;
+        //the position of records.get(0) in the whole source
+        private final long offset;
+        private final Output output;
+
+        private Range(List<Object[]> records, int from, int to, long offset, Output output) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+            this.output = output;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Range(records, from, middle, offset, output), new Range(records, middle, to, offset, output));
+                return;
+            }
+            Interpreter interpreter = Interpreter.of(image);
+            Environment.Variable[] variables = new Environment.Variable[inputs.size()];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = interpreter.getScope().defineVariable(inputs.get(i), inputs.get(i), Environment.Type.ANY, true, Environment.NIL);
+            }
+            for (int i = from; i < to; i++) {
+                Object[] record = records.get(i);
+                if (record.length != variables.length) {
+                    throw new IllegalArgumentException("Record " + (offset + i) + " has " + record.length + " values, expected " + variables.length + ".");
+                }
+                for (int j = 0; j < variables.length; j++) {
+                    variables[j].setValue(Environment.create(record[j]));
+                }
+                Environment.PlcObject result;
+                try {
+                    result = interpreter.execute();
+                } catch (RuntimeException e) {
+                    output.fail(offset + i, e);
+                    continue;
+                }
+                output.write(offset + i, result);
+            }
+        }
+
+    }
+
+    private static final class Columns extends AbstractList<Object[]> implements RandomAccess {
+
+        private final List<?>[] columns;
+        private final int size;
+
+        private Columns(List<?>[] columns, int size) {
+            this.columns = columns;
+            this.size = size;
+        }
+
+        @Override
+        public Object[] get(int index) {
+            Object[] record = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                record[i] = columns[i].get(index);
+            }
+            return record;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
+    /**
+     * The number of records evaluated and the time it took.
+     */
+    public static final class Result {
+
+        private final long records;
+        private final Duration duration;
+
+        private Result(long records, Duration duration) {
+            this.records = records;
+            this.duration = duration;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        public double getRecordsPerSecond() {
+            long nanos = Math.max(duration.toNanos(), 1);
+            return records * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return records + " records in " + duration.toMillis() + "ms (" + Math.round(getRecordsPerSecond()) + " records/s)";
+        }
+
+    }
+
+}
@@ -0,0 +1,618 @@
+package plc.project;
+
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiler is a third backend next to the {@link Interpreter} and the
+ * {@link Generator}. It translates an analyzed {@link Ast.Source} directly to
+ * JVM bytecode in memory, loads it through its own class loader and invokes
+ * {@code main}, so programs run at JIT speed without a javac step.
+ *
+ * The generated class follows the Generator's mapping of PLC types to Java
+ * types: Integer, Decimal, Boolean and Character values live in primitive
+ * {@code int}, {@code double}, {@code boolean} and {@code char} locals, fields
+ * become static fields and methods become static methods named after their
+ * {@link Environment.Function#getJvmName()}. Each expression visit returns the
+ * descriptor of the value it leaves on the operand stack.
+ */
+public final class BytecodeCompiler implements Ast.Visitor<String> {
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+
+    private final String className;
+    private ClassWriter writer;
+    private ClassWriter.Code code;
+    private String returnDescriptor;
+    private final Map<String, String> globals = new HashMap<>();
+    private final Map<String, Ast.Method> methods = new HashMap<>();
+    private final Deque<Map<String, Local>> locals = new ArrayDeque<>();
+
+    public BytecodeCompiler() {
+        this("Main");
+    }
+
+    public BytecodeCompiler(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Compiles the source to the bytes of a class file.
+     */
+    public byte[] compile(Ast.Source ast) {
+        writer = new ClassWriter(className);
+        visit(ast);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Compiles and defines the class in a new, isolated class loader.
+     */
+    public Class<?> load(Ast.Source ast) {
+        return new Loader().define(className.replace('/', '.'), compile(ast));
+    }
+
+    /**
+     * Compiles, loads and runs the source, returning the result of main/0.
+     */
+    public int run(Ast.Source ast) {
+        try {
+            return (Integer) load(ast).getMethod("main").invoke(null);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String visit(Ast.Source ast) {
+        //register fields and method signatures first so forward calls resolve
+        for (Ast.Field field : ast.getFields()) {
+            String descriptor = descriptor(field.getVariable().getType());
+            int access = ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC | (field.getConstant() ? ClassWriter.ACC_FINAL : 0);
+            writer.field(access, field.getVariable().getJvmName(), descriptor);
+            globals.put(field.getName(), descriptor);
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            methods.put(method.getName() + "/" + method.getParameters().size(), method);
+        }
+
+        //field initializers run in the static initializer, in source order
+        code = writer.method(ClassWriter.ACC_STATIC, "<clinit>", "()V");
+        locals.push(new HashMap<>());
+        for (Ast.Field field : ast.getFields()) {
+            visit(field);
+        }
+        code.op(ClassWriter.RETURN, 0);
+        code.end();
+        locals.pop();
+
+        for (Ast.Method method : ast.getMethods()) {
+            visit(method);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Field ast) {
+        if (ast.getValue().isPresent()) {
+            String descriptor = globals.get(ast.getName());
+            coerce(visit(ast.getValue().get()), descriptor);
+            code.field(ClassWriter.PUTSTATIC, className, ast.getVariable().getJvmName(), descriptor);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Method ast) {
+        Environment.Function function = ast.getFunction();
+        returnDescriptor = returnDescriptor(function.getReturnType());
+        code = writer.method(ClassWriter.ACC_PUBLIC | ClassWriter.ACC_STATIC, function.getJvmName(), methodDescriptor(function));
+
+        //parameters occupy the first local slots in declaration order
+        Map<String, Local> parameters = new HashMap<>();
+        int slot = 0;
+        for (int i = 0; i < ast.getParameters().size(); i++) {
+            String descriptor = descriptor(function.getParameterTypes().get(i));
+            parameters.put(ast.getParameters().get(i), new Local(slot, descriptor));
+            slot += ClassWriter.slotSize(descriptor);
+        }
+        locals.push(parameters);
+        for (Ast.Statement statement : ast.getStatements()) {
+            visit(statement);
+        }
+        locals.pop();
+
+        //falling off the end returns the default value of the return type
+        defaultValue(returnDescriptor);
+        code.op(returnOpcode(returnDescriptor), -ClassWriter.slotSize(returnDescriptor));
+        code.end();
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Expression ast) {
+        pop(visit(ast.getExpression()));
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Declaration ast) {
+        String descriptor = descriptor(ast.getVariable().getType());
+        if (ast.getValue().isPresent()) {
+            coerce(visit(ast.getValue().get()), descriptor);
+        } else {
+            //the JVM requires definite assignment, NIL maps to the default value
+            defaultValue(descriptor);
+        }
+        Local local = new Local(code.local(descriptor), descriptor);
+        locals.peek().put(ast.getName(), local);
+        code.store(descriptor, local.slot);
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Assignment ast) {
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)
+                || ((Ast.Expression.Access) ast.getReceiver()).getReceiver().isPresent()) {
+            throw new RuntimeException("BytecodeCompiler only supports assignment to variables.");
+        }
+        String name = ((Ast.Expression.Access) ast.getReceiver()).getName();
+        Local local = lookup(name);
+        if (local != null) {
+            coerce(visit(ast.getValue()), local.descriptor);
+            code.store(local.descriptor, local.slot);
+        } else {
+            String descriptor = global(name);
+            coerce(visit(ast.getValue()), descriptor);
+            code.field(ClassWriter.PUTSTATIC, className, ((Ast.Expression.Access) ast.getReceiver()).getVariable().getJvmName(), descriptor);
+        }
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.If ast) {
+        ClassWriter.Label otherwise = code.label();
+        ClassWriter.Label end = code.label();
+        coerce(visit(ast.getCondition()), "Z");
+        code.jump(ClassWriter.IFEQ, otherwise, -1);
+        block(ast.getThenStatements());
+        code.jump(ClassWriter.GOTO, end, 0);
+        code.mark(otherwise);
+        block(ast.getElseStatements());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.For ast) {
+        locals.push(new HashMap<>());
+        if (ast.getInitialization() != null) {
+            visit(ast.getInitialization());
+        }
+        ClassWriter.Label condition = code.label();
+        ClassWriter.Label end = code.label();
+        code.mark(condition);
+        coerce(visit(ast.getCondition()), "Z");
+        code.jump(ClassWriter.IFEQ, end, -1);
+        block(ast.getStatements());
+        if (ast.getIncrement() != null) {
+            visit(ast.getIncrement());
+        }
+        code.jump(ClassWriter.GOTO, condition, 0);
+        code.mark(end);
+        locals.pop();
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.While ast) {
+        ClassWriter.Label condition = code.label();
+        ClassWriter.Label end = code.label();
+        code.mark(condition);
+        coerce(visit(ast.getCondition()), "Z");
+        code.jump(ClassWriter.IFEQ, end, -1);
+        block(ast.getStatements());
+        code.jump(ClassWriter.GOTO, condition, 0);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Statement.Return ast) {
+        String value = visit(ast.getValue());
+        if (returnDescriptor.equals("V")) {
+            pop(value);
+        } else {
+            coerce(value, returnDescriptor);
+        }
+        code.op(returnOpcode(returnDescriptor), -ClassWriter.slotSize(returnDescriptor));
+        return null;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Literal ast) {
+        Object literal = ast.getLiteral();
+        if (literal == null) {
+            code.op(ClassWriter.ACONST_NULL, 1);
+            return OBJECT;
+        } else if (literal instanceof Boolean) {
+            code.iconst((Boolean) literal ? 1 : 0);
+            return "Z";
+        } else if (literal instanceof Character) {
+            code.iconst((Character) literal);
+            return "C";
+        } else if (literal instanceof BigInteger) {
+            code.iconst(((BigInteger) literal).intValueExact());
+            return "I";
+        } else if (literal instanceof BigDecimal) {
+            code.dconst(((BigDecimal) literal).doubleValue());
+            return "D";
+        } else if (literal instanceof String) {
+            code.sconst((String) literal);
+            return STRING;
+        }
+        throw new RuntimeException("Cannot compile literal " + literal + ".");
+    }
+
+    @Override
+    public String visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public String visit(Ast.Expression.Binary ast) {
+        switch (ast.getOperator()) {
+            case "&&":
+            case "||":
+                return logical(ast);
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                return comparison(ast);
+            case "+":
+                if (ast.getType() == Environment.Type.STRING) {
+                    return concatenation(ast);
+                }
+                return arithmetic(ast, ClassWriter.IADD, ClassWriter.DADD);
+            case "-":
+                return arithmetic(ast, ClassWriter.ISUB, ClassWriter.DSUB);
+            case "*":
+                return arithmetic(ast, ClassWriter.IMUL, ClassWriter.DMUL);
+            case "/":
+                return arithmetic(ast, ClassWriter.IDIV, ClassWriter.DDIV);
+            default:
+                throw new RuntimeException("Cannot identify operator.");
+        }
+    }
+
+    @Override
+    public String visit(Ast.Expression.Access ast) {
+        if (ast.getReceiver().isPresent()) {
+            String receiver = visit(ast.getReceiver().get());
+            if (receiver.equals(STRING) && ast.getName().equals("length")) {
+                code.invoke(ClassWriter.INVOKEVIRTUAL, "java/lang/String", "length", "()I");
+                return "I";
+            }
+            throw new RuntimeException("BytecodeCompiler does not support field " + ast.getName() + ".");
+        }
+        Local local = lookup(ast.getName());
+        if (local != null) {
+            code.load(local.descriptor, local.slot);
+            return local.descriptor;
+        }
+        String descriptor = global(ast.getName());
+        code.field(ClassWriter.GETSTATIC, className, ast.getVariable().getJvmName(), descriptor);
+        return descriptor;
+    }
+
+    @Override
+    public String visit(Ast.Expression.Function ast) {
+        Environment.Function function = ast.getFunction();
+        if (ast.getReceiver().isPresent()) {
+            return method(ast);
+        } else if (function.getJvmName().equals("System.out.println")) {
+            code.field(ClassWriter.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+            String argument = visit(ast.getArguments().get(0));
+            String parameter = argument.startsWith("L") && !argument.equals(STRING) ? OBJECT : argument;
+            code.invoke(ClassWriter.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(" + parameter + ")V");
+            code.op(ClassWriter.ACONST_NULL, 1);
+            return OBJECT;
+        }
+
+        Ast.Method method = methods.get(ast.getName() + "/" + ast.getArguments().size());
+        if (method == null) {
+            throw new RuntimeException("BytecodeCompiler cannot call " + ast.getName() + "/" + ast.getArguments().size() + " which is not defined in the source.");
+        }
+        Environment.Function target = method.getFunction();
+        for (int i = 0; i < ast.getArguments().size(); i++) {
+            coerce(visit(ast.getArguments().get(i)), descriptor(target.getParameterTypes().get(i)));
+        }
+        code.invoke(ClassWriter.INVOKESTATIC, className, target.getJvmName(), methodDescriptor(target));
+        String result = returnDescriptor(target.getReturnType());
+        if (result.equals("V")) {
+            code.op(ClassWriter.ACONST_NULL, 1);
+            return OBJECT;
+        }
+        return result;
+    }
+
+    /**
+     * Compiles the builtin methods that can be called on a receiver.
+     */
+    private String method(Ast.Expression.Function ast) {
+        String receiver = visit(ast.getReceiver().get());
+        if (ast.getName().equals("stringify")) {
+            String parameter = receiver.startsWith("L") ? OBJECT : receiver;
+            code.invoke(ClassWriter.INVOKESTATIC, "java/lang/String", "valueOf", "(" + parameter + ")" + STRING);
+            return STRING;
+        } else if (ast.getName().equals("slice") && receiver.equals(STRING) && ast.getArguments().size() == 2) {
+            coerce(visit(ast.getArguments().get(0)), "I");
+            coerce(visit(ast.getArguments().get(1)), "I");
+            code.invoke(ClassWriter.INVOKEVIRTUAL, "java/lang/String", "substring", "(II)" + STRING);
+            return STRING;
+        }
+        throw new RuntimeException("BytecodeCompiler does not support method " + ast.getName() + "/" + ast.getArguments().size() + ".");
+    }
+
+    private String logical(Ast.Expression.Binary ast) {
+        //short circuits like the Generator's Java output
+        boolean and = ast.getOperator().equals("&&");
+        ClassWriter.Label shortCircuit = code.label();
+        ClassWriter.Label end = code.label();
+        coerce(visit(ast.getLeft()), "Z");
+        code.jump(and ? ClassWriter.IFEQ : ClassWriter.IFNE, shortCircuit, -1);
+        coerce(visit(ast.getRight()), "Z");
+        code.jump(and ? ClassWriter.IFEQ : ClassWriter.IFNE, shortCircuit, -1);
+        code.iconst(and ? 1 : 0);
+        code.jump(ClassWriter.GOTO, end, 0);
+        code.mark(shortCircuit);
+        code.iconst(and ? 0 : 1);
+        code.mark(end);
+        return "Z";
+    }
+
+    private String comparison(Ast.Expression.Binary ast) {
+        String operator = ast.getOperator();
+        boolean equality = operator.equals("==") || operator.equals("!=");
+        ClassWriter.Label isTrue = code.label();
+        ClassWriter.Label end = code.label();
+
+        String left = visit(ast.getLeft());
+        if (equality && ClassWriter.kind(left) == 'A') {
+            coerce(left, OBJECT);
+            coerce(visit(ast.getRight()), OBJECT);
+            code.invoke(ClassWriter.INVOKESTATIC, "java/util/Objects", "equals", "(" + OBJECT + OBJECT + ")Z");
+            code.jump(operator.equals("==") ? ClassWriter.IFNE : ClassWriter.IFEQ, isTrue, -1);
+        } else if (ClassWriter.kind(left) == 'I') {
+            coerce(visit(ast.getRight()), left);
+            code.jump(integerBranch(operator), isTrue, -2);
+        } else if (ClassWriter.kind(left) == 'D') {
+            coerce(visit(ast.getRight()), "D");
+            //NaN compares false for < and <=, matching javac
+            code.op(operator.startsWith("<") ? ClassWriter.DCMPG : ClassWriter.DCMPL, -3);
+            code.jump(zeroBranch(operator), isTrue, -1);
+        } else {
+            code.type(ClassWriter.CHECKCAST, "java/lang/Comparable");
+            coerce(visit(ast.getRight()), OBJECT);
+            code.invoke(ClassWriter.INVOKEINTERFACE, "java/lang/Comparable", "compareTo", "(" + OBJECT + ")I");
+            code.jump(zeroBranch(operator), isTrue, -1);
+        }
+        code.iconst(0);
+        code.jump(ClassWriter.GOTO, end, 0);
+        code.mark(isTrue);
+        code.iconst(1);
+        code.mark(end);
+        return "Z";
+    }
+
+    private String concatenation(Ast.Expression.Binary ast) {
+        code.type(ClassWriter.NEW, "java/lang/StringBuilder");
+        code.op(ClassWriter.DUP, 1);
+        code.invoke(ClassWriter.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V");
+        for (Ast.Expression operand : List.of(ast.getLeft(), ast.getRight())) {
+            String value = visit(operand);
+            String parameter = value.startsWith("L") && !value.equals(STRING) ? OBJECT : value;
+            code.invoke(ClassWriter.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + parameter + ")Ljava/lang/StringBuilder;");
+        }
+        code.invoke(ClassWriter.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()" + STRING);
+        return STRING;
+    }
+
+    private String arithmetic(Ast.Expression.Binary ast, int integer, int decimal) {
+        String left = visit(ast.getLeft());
+        String right = visit(ast.getRight());
+        if (left.equals("I") && right.equals("I")) {
+            code.op(integer, -1);
+            return "I";
+        } else if (left.equals("D") && right.equals("D")) {
+            code.op(decimal, -2);
+            return "D";
+        }
+        throw new RuntimeException("Cannot apply " + ast.getOperator() + " to " + left + " and " + right + ".");
+    }
+
+    private void block(List<Ast.Statement> statements) {
+        locals.push(new HashMap<>());
+        for (Ast.Statement statement : statements) {
+            visit(statement);
+        }
+        locals.pop();
+    }
+
+    private Local lookup(String name) {
+        for (Map<String, Local> scope : locals) {
+            if (scope.containsKey(name)) {
+                return scope.get(name);
+            }
+        }
+        return null;
+    }
+
+    private String global(String name) {
+        if (!globals.containsKey(name)) {
+            throw new RuntimeException("The variable " + name + " is not defined.");
+        }
+        return globals.get(name);
+    }
+
+    /**
+     * Converts the value on top of the stack from one descriptor to another,
+     * boxing primitives that flow into Any or Comparable typed slots.
+     */
+    private void coerce(String from, String to) {
+        if (from.equals(to) || (to.equals(OBJECT) && from.startsWith("L"))) {
+            return;
+        }
+        if (to.startsWith("L")) {
+            switch (from) {
+                case "I":
+                    code.invoke(ClassWriter.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+                    return;
+                case "D":
+                    code.invoke(ClassWriter.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+                    return;
+                case "Z":
+                    code.invoke(ClassWriter.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+                    return;
+                case "C":
+                    code.invoke(ClassWriter.INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;");
+                    return;
+                default:
+                    code.type(ClassWriter.CHECKCAST, to.substring(1, to.length() - 1));
+                    return;
+            }
+        }
+        if (ClassWriter.kind(from) == 'I' && ClassWriter.kind(to) == 'I') {
+            return;
+        }
+        throw new RuntimeException("Cannot convert " + from + " to " + to + ".");
+    }
+
+    private void pop(String descriptor) {
+        int size = ClassWriter.slotSize(descriptor);
+        if (size == 1) {
+            code.op(ClassWriter.POP, -1);
+        } else if (size == 2) {
+            code.op(ClassWriter.POP2, -2);
+        }
+    }
+
+    private void defaultValue(String descriptor) {
+        switch (ClassWriter.kind(descriptor)) {
+            case 'D':
+                code.dconst(0);
+                break;
+            case 'A':
+                code.op(ClassWriter.ACONST_NULL, 1);
+                break;
+            default:
+                if (!descriptor.equals("V")) {
+                    code.iconst(0);
+                }
+        }
+    }
+
+    private static int integerBranch(String operator) {
+        switch (operator) {
+            case "<": return ClassWriter.IF_ICMPLT;
+            case "<=": return ClassWriter.IF_ICMPLE;
+            case ">": return ClassWriter.IF_ICMPGT;
+            case ">=": return ClassWriter.IF_ICMPGE;
+            case "==": return ClassWriter.IF_ICMPEQ;
+            default: return ClassWriter.IF_ICMPNE;
+        }
+    }
+
+    private static int zeroBranch(String operator) {
+        switch (operator) {
+            case "<": return ClassWriter.IFLT;
+            case "<=": return ClassWriter.IFLE;
+            case ">": return ClassWriter.IFGT;
+            case ">=": return ClassWriter.IFGE;
+            case "==": return ClassWriter.IFEQ;
+            default: return ClassWriter.IFNE;
+        }
+    }
+
+    private static int returnOpcode(String descriptor) {
+        switch (descriptor.equals("V") ? 'V' : ClassWriter.kind(descriptor)) {
+            case 'V': return ClassWriter.RETURN;
+            case 'D': return ClassWriter.DRETURN;
+            case 'A': return ClassWriter.ARETURN;
+            default: return ClassWriter.IRETURN;
+        }
+    }
+
+    /**
+     * Maps a PLC type to the descriptor of the Java type the Generator uses.
+     */
+    private static String descriptor(Environment.Type type) {
+        switch (type.getName()) {
+            case "Integer": return "I";
+            case "Decimal": return "D";
+            case "Boolean": return "Z";
+            case "Character": return "C";
+            case "String": return STRING;
+            default: return OBJECT;
+        }
+    }
+
+    private static String returnDescriptor(Environment.Type type) {
+        return type == Environment.Type.NIL ? "V" : descriptor(type);
+    }
+
+    private static String methodDescriptor(Environment.Function function) {
+        StringBuilder builder = new StringBuilder("(");
+        for (Environment.Type type : function.getParameterTypes()) {
+            builder.append(descriptor(type));
+        }
+        return builder.append(")").append(returnDescriptor(function.getReturnType())).toString();
+    }
+
+    /**
+     * A local variable slot and the descriptor of the value stored in it.
+     */
+    private static final class Local {
+
+        private final int slot;
+        private final String descriptor;
+
+        private Local(int slot, String descriptor) {
+            this.slot = slot;
+            this.descriptor = descriptor;
+        }
+
+    }
+
+    /**
+     * Class loader that defines a single compiled class. A fresh loader is
+     * used per class so repeated compilations never clash on the class name.
+     */
+    private static final class Loader extends ClassLoader {
+
+        private Loader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
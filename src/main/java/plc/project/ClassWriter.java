@@ -0,0 +1,479 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, used by the {@link BytecodeCompiler} to emit
+ * bytecode without depending on an external assembler library.
+ *
+ * Classes are written with version 49.0 (Java 5). That version predates the
+ * {@code StackMapTable} attribute, so the JVM verifies the generated code with
+ * the type-inferencing verifier and we never have to compute stack frames.
+ */
+public final class ClassWriter {
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    public static final int ACONST_NULL = 1;
+    public static final int ICONST_0 = 3;
+    public static final int BIPUSH = 16;
+    public static final int SIPUSH = 17;
+    public static final int LDC_W = 19;
+    public static final int LDC2_W = 20;
+    public static final int ILOAD = 21;
+    public static final int DLOAD = 24;
+    public static final int ALOAD = 25;
+    public static final int ISTORE = 54;
+    public static final int DSTORE = 57;
+    public static final int ASTORE = 58;
+    public static final int POP = 87;
+    public static final int POP2 = 88;
+    public static final int DUP = 89;
+    public static final int IADD = 96;
+    public static final int DADD = 99;
+    public static final int ISUB = 100;
+    public static final int DSUB = 103;
+    public static final int IMUL = 104;
+    public static final int DMUL = 107;
+    public static final int IDIV = 108;
+    public static final int DDIV = 111;
+    public static final int DCMPL = 151;
+    public static final int DCMPG = 152;
+    public static final int IFEQ = 153;
+    public static final int IFNE = 154;
+    public static final int IFLT = 155;
+    public static final int IFGE = 156;
+    public static final int IFGT = 157;
+    public static final int IFLE = 158;
+    public static final int IF_ICMPEQ = 159;
+    public static final int IF_ICMPNE = 160;
+    public static final int IF_ICMPLT = 161;
+    public static final int IF_ICMPGE = 162;
+    public static final int IF_ICMPGT = 163;
+    public static final int IF_ICMPLE = 164;
+    public static final int GOTO = 167;
+    public static final int IRETURN = 172;
+    public static final int DRETURN = 175;
+    public static final int ARETURN = 176;
+    public static final int RETURN = 177;
+    public static final int GETSTATIC = 178;
+    public static final int PUTSTATIC = 179;
+    public static final int INVOKEVIRTUAL = 182;
+    public static final int INVOKESPECIAL = 183;
+    public static final int INVOKESTATIC = 184;
+    public static final int INVOKEINTERFACE = 185;
+    public static final int NEW = 187;
+    public static final int CHECKCAST = 192;
+    public static final int WIDE = 196;
+
+    private final String name;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * Creates a writer for a class with the given internal name (using
+     * {@code /} as the package separator) extending {@code java.lang.Object}.
+     */
+    public ClassWriter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Starts a new method. The returned {@link Code} must be finished with
+     * {@link Code#end()} before {@link #toByteArray()} is called.
+     */
+    public Code method(int access, String name, String descriptor) {
+        return new Code(access, name, descriptor);
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public int utf8(String value) {
+        return constant("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    public int classRef(String internalName) {
+        int index = utf8(internalName);
+        return constant("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(index);
+        });
+    }
+
+    public int string(String value) {
+        int index = utf8(value);
+        return constant("S" + value, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(index);
+        });
+    }
+
+    public int integer(int value) {
+        return constant("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    public int decimal(double value) {
+        return constant("D" + Double.doubleToRawLongBits(value), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(value);
+        });
+    }
+
+    public int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + tag + owner + "." + name + ":" + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Adds a constant pool entry unless an identical one already exists. The
+     * key is a tagged string so entries of different kinds never collide.
+     */
+    private int constant(String key, int slots, Entry entry) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        int index = poolCount;
+        poolCount += slots;
+        if (poolCount > 0xFFFF) {
+            throw new RuntimeException("Constant pool of class " + name + " is too large.");
+        }
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * A branch target inside a {@link Code} block, created by
+     * {@link Code#label()}. Offsets are patched when the method is finished.
+     */
+    public static final class Label {
+
+        private int position = -1;
+        private int depth = -1;
+        private final List<int[]> fixups = new ArrayList<>();
+
+    }
+
+    /**
+     * Builder for the body of a single method. Every emitting method updates
+     * the tracked operand stack depth so {@code max_stack} is computed as the
+     * code is written.
+     */
+    public final class Code {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int depth = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = argumentSlots(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        public Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        /**
+         * Reserves a new local variable slot, two wide for {@code double}.
+         */
+        public int local(String descriptor) {
+            int slot = maxLocals;
+            maxLocals += slotSize(descriptor);
+            return slot;
+        }
+
+        public void op(int opcode, int delta) {
+            bytes.write(opcode);
+            adjust(delta);
+        }
+
+        public void op1(int opcode, int operand, int delta) {
+            bytes.write(opcode);
+            bytes.write(operand);
+            adjust(delta);
+        }
+
+        public void op2(int opcode, int operand, int delta) {
+            bytes.write(opcode);
+            bytes.write(operand >> 8);
+            bytes.write(operand);
+            adjust(delta);
+        }
+
+        public void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op1(BIPUSH, value & 0xFF, 1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op2(SIPUSH, value & 0xFFFF, 1);
+            } else {
+                op2(LDC_W, integer(value), 1);
+            }
+        }
+
+        public void dconst(double value) {
+            op2(LDC2_W, decimal(value), 2);
+        }
+
+        public void sconst(String value) {
+            op2(LDC_W, string(value), 1);
+        }
+
+        public void load(String descriptor, int slot) {
+            variable(kind(descriptor) == 'D' ? DLOAD : kind(descriptor) == 'A' ? ALOAD : ILOAD, slot, slotSize(descriptor));
+        }
+
+        public void store(String descriptor, int slot) {
+            variable(kind(descriptor) == 'D' ? DSTORE : kind(descriptor) == 'A' ? ASTORE : ISTORE, slot, -slotSize(descriptor));
+        }
+
+        private void variable(int opcode, int slot, int delta) {
+            if (slot > 0xFF) {
+                bytes.write(WIDE);
+                op2(opcode, slot, delta);
+            } else {
+                op1(opcode, slot, delta);
+            }
+        }
+
+        public void field(int opcode, String owner, String name, String descriptor) {
+            int size = slotSize(descriptor);
+            op2(opcode, member(9, owner, name, descriptor), opcode == GETSTATIC ? size : -size);
+        }
+
+        public void invoke(int opcode, String owner, String name, String descriptor) {
+            int delta = returnSlots(descriptor) - argumentSlots(descriptor) - (opcode == INVOKESTATIC ? 0 : 1);
+            if (opcode == INVOKEINTERFACE) {
+                op2(opcode, member(11, owner, name, descriptor), delta);
+                bytes.write(argumentSlots(descriptor) + 1);
+                bytes.write(0);
+            } else {
+                op2(opcode, member(10, owner, name, descriptor), delta);
+            }
+        }
+
+        public void type(int opcode, String internalName) {
+            op2(opcode, classRef(internalName), opcode == NEW ? 1 : 0);
+        }
+
+        /**
+         * Emits a branch instruction. The delta is the stack effect of the
+         * instruction itself; the label records the depth on arrival.
+         */
+        public void jump(int opcode, Label label, int delta) {
+            int start = bytes.size();
+            op2(opcode, 0, delta);
+            label.depth = depth;
+            label.fixups.add(new int[]{start});
+        }
+
+        public void mark(Label label) {
+            label.position = bytes.size();
+            if (label.depth >= 0) {
+                depth = label.depth;
+            }
+        }
+
+        /**
+         * Finishes the method, patching branch offsets and adding it to the
+         * enclosing class.
+         */
+        public void end() {
+            byte[] code = bytes.toByteArray();
+            for (Label label : labels) {
+                for (int[] fixup : label.fixups) {
+                    if (label.position < 0) {
+                        throw new IllegalStateException("Unplaced label in " + name + ".");
+                    }
+                    int offset = label.position - fixup[0];
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new RuntimeException("Method " + name + " is too large to compile.");
+                    }
+                    code[fixup[0] + 1] = (byte) (offset >> 8);
+                    code[fixup[0] + 2] = (byte) offset;
+                }
+            }
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + code.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            methods.add(method.toByteArray());
+        }
+
+        private void adjust(int delta) {
+            depth += delta;
+            if (depth < 0) {
+                throw new IllegalStateException("Operand stack underflow in " + name + ".");
+            }
+            maxStack = Math.max(maxStack, depth);
+        }
+
+    }
+
+    /**
+     * Returns {@code I}, {@code D} or {@code A} for the load/store instruction
+     * family used by a field descriptor.
+     */
+    public static char kind(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'D':
+                return 'D';
+            case 'L':
+            case '[':
+                return 'A';
+            default:
+                return 'I';
+        }
+    }
+
+    public static int slotSize(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'V':
+                return 0;
+            case 'D':
+            case 'J':
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+                slots++;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                slots++;
+            } else {
+                slots += slotSize(String.valueOf(c));
+            }
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        return slotSize(descriptor.substring(descriptor.indexOf(')') + 1));
+    }
+
+}
@@ -0,0 +1,124 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * How the Interpreter evaluates one {@code <}, {@code <=}, {@code >} or
+ * {@code >=} Binary, chosen once per node from the operand types the
+ * {@link Analyzer} recorded.
+ *
+ * When both operands are Integers, Decimals, Characters or Strings, the
+ * values are compared directly with a cast instead of through Comparable.
+ * Unanalyzed operands, and any value of an unexpected type, take the generic
+ * path, which requires both values to be comparable and of the same class.
+ */
+final class Comparison {
+
+    private enum Kind {
+        INTEGER, DECIMAL, CHARACTER, STRING, ANY
+    }
+
+    private enum Test {
+        LESS, LESS_EQUAL, GREATER, GREATER_EQUAL
+    }
+
+    private final Kind kind;
+    private final Test test;
+
+    private Comparison(Kind kind, Test test) {
+        this.kind = kind;
+        this.test = test;
+    }
+
+    /**
+     * Returns the comparison for a Binary, or null if its operator does not
+     * compare.
+     */
+    static Comparison of(Ast.Expression.Binary ast) {
+        Test test;
+        switch (ast.getOperator()) {
+            case "<":
+                test = Test.LESS;
+                break;
+            case "<=":
+                test = Test.LESS_EQUAL;
+                break;
+            case ">":
+                test = Test.GREATER;
+                break;
+            case ">=":
+                test = Test.GREATER_EQUAL;
+                break;
+            default:
+                return null;
+        }
+        Environment.Type left = type(ast.getLeft());
+        Kind kind = Kind.ANY;
+        if (left != null && left.equals(type(ast.getRight()))) {
+            if (left == Environment.Type.INTEGER) {
+                kind = Kind.INTEGER;
+            } else if (left == Environment.Type.DECIMAL) {
+                kind = Kind.DECIMAL;
+            } else if (left == Environment.Type.CHARACTER) {
+                kind = Kind.CHARACTER;
+            } else if (left == Environment.Type.STRING) {
+                kind = Kind.STRING;
+            }
+        }
+        return new Comparison(kind, test);
+    }
+
+    /**
+     * Compares the values, returning the shared boolean constant.
+     */
+    Environment.PlcObject evaluate(Environment.PlcObject left, Environment.PlcObject right) {
+        Object l = left.getValue();
+        Object r = right.getValue();
+        int comparison;
+        if (kind == Kind.INTEGER && l instanceof BigInteger && r instanceof BigInteger) {
+            comparison = ((BigInteger) l).compareTo((BigInteger) r);
+        } else if (kind == Kind.DECIMAL && l instanceof BigDecimal && r instanceof BigDecimal) {
+            comparison = ((BigDecimal) l).compareTo((BigDecimal) r);
+        } else if (kind == Kind.CHARACTER && l instanceof Character && r instanceof Character) {
+            comparison = Character.compare((Character) l, (Character) r);
+        } else if (kind == Kind.STRING && l instanceof String && r instanceof String) {
+            comparison = ((String) l).compareTo((String) r);
+        } else {
+            comparison = generic(l, r);
+        }
+        switch (test) {
+            case LESS:
+                return Environment.create(comparison < 0);
+            case LESS_EQUAL:
+                return Environment.create(comparison <= 0);
+            case GREATER:
+                return Environment.create(comparison > 0);
+            default:
+                return Environment.create(comparison >= 0);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int generic(Object left, Object right) {
+        if (!(left instanceof Comparable)) {
+            throw new RuntimeException("Expected type " + Comparable.class.getName() + ", received " + left.getClass().getName() + ".");
+        }
+        if (!left.getClass().isInstance(right)) {
+            throw new RuntimeException("Expected type " + left.getClass().getName() + ", received " + right.getClass().getName() + ".");
+        }
+        return ((Comparable) left).compareTo(right);
+    }
+
+    /**
+     * Returns the type of an expression, or null if it has not been analyzed.
+     */
+    private static Environment.Type type(Ast.Expression ast) {
+        try {
+            return ast.getType();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+}
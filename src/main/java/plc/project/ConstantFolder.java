@@ -0,0 +1,225 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Folds constant expressions and simplifies identities after the Analyzer.
+ *
+ * Folding only happens where the Interpreter (BigInteger/BigDecimal) and the
+ * generated Java (int/double) agree on the result: Integer results must fit
+ * in 32 bits, Decimal results must be exactly representable as the double the
+ * Java code would compute, and divisions by zero are left to fail at run time.
+ * Operands that are dropped by a simplification must not fail either, which
+ * for those the operator checks includes not being NIL; see
+ * {@link Rewriter#cannotFail}.
+ */
+public final class ConstantFolder extends Rewriter {
+
+    private static final BigInteger MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+    private static final BigInteger MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+
+    private Set<Environment.Variable> initialized = Collections.emptySet();
+
+    @Override
+    public Ast.Source rewrite(Ast.Source ast) {
+        initialized = initialized(ast);
+        return super.rewrite(ast);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.If ast) {
+        Ast.Expression condition = expression(ast.getCondition());
+        List<Ast.Statement> thenStatements = block(ast.getThenStatements());
+        List<Ast.Statement> elseStatements = block(ast.getElseStatements());
+        if (condition instanceof Ast.Expression.Literal) {
+            List<Ast.Statement> taken = Boolean.TRUE.equals(((Ast.Expression.Literal) condition).getLiteral()) ? thenStatements : elseStatements;
+            //the taken branch can only be spliced into the enclosing block if it declares nothing
+            if (!Ast.Statement.declares(taken)) {
+                taken.forEach(this::insert);
+                return null;
+            }
+        }
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.While ast) {
+        Ast.Expression condition = expression(ast.getCondition());
+        if (condition instanceof Ast.Expression.Literal && Boolean.FALSE.equals(((Ast.Expression.Literal) condition).getLiteral())) {
+            return null;
+        }
+        return new Ast.Statement.While(condition, block(ast.getStatements()));
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = expression(ast.getExpression());
+        if (!(expression instanceof Ast.Expression.Binary)) {
+            return expression;
+        }
+        Ast.Expression.Group result = new Ast.Expression.Group(expression);
+        result.setType(annotation(ast::getType));
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = expression(ast.getLeft());
+        Ast.Expression right = expression(ast.getRight());
+        Object folded = null;
+        if (left instanceof Ast.Expression.Literal && right instanceof Ast.Expression.Literal) {
+            folded = fold(ast.getOperator(), ((Ast.Expression.Literal) left).getLiteral(), ((Ast.Expression.Literal) right).getLiteral());
+        }
+        if (folded != null) {
+            return literal(folded);
+        }
+        Ast.Expression simplified = simplify(ast.getOperator(), left, right);
+        if (simplified != null) {
+            return simplified;
+        }
+        Ast.Expression.Binary result = new Ast.Expression.Binary(ast.getOperator(), left, right);
+        result.setType(annotation(ast::getType));
+        return result;
+    }
+
+    /**
+     * Returns the value of the operation, or null if it should not be folded.
+     */
+    private static Object fold(String operator, Object left, Object right) {
+        if (left instanceof Boolean && right instanceof Boolean) {
+            switch (operator) {
+                case "&&": return (Boolean) left && (Boolean) right;
+                case "||": return (Boolean) left || (Boolean) right;
+                case "==": return left.equals(right);
+                case "!=": return !left.equals(right);
+                default: return null;
+            }
+        } else if (left instanceof BigInteger && right instanceof BigInteger) {
+            BigInteger x = (BigInteger) left;
+            BigInteger y = (BigInteger) right;
+            switch (operator) {
+                case "+": return integer(x.add(y));
+                case "-": return integer(x.subtract(y));
+                case "*": return integer(x.multiply(y));
+                case "/": return y.signum() == 0 ? null : integer(x.divide(y));
+                default: return compare(operator, x.compareTo(y), x.equals(y));
+            }
+        } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            BigDecimal x = (BigDecimal) left;
+            BigDecimal y = (BigDecimal) right;
+            double a = x.doubleValue();
+            double b = y.doubleValue();
+            switch (operator) {
+                case "+": return decimal(x.add(y), a + b);
+                case "-": return decimal(x.subtract(y), a - b);
+                case "*": return decimal(x.multiply(y), a * b);
+                case "/": return null;
+                default:
+                    //BigDecimal equality includes the scale, while doubles only compare values
+                    Boolean exact = compare(operator, x.compareTo(y), x.equals(y));
+                    Boolean approximate = compare(operator, Double.compare(a, b), a == b);
+                    return exact != null && exact.equals(approximate) ? exact : null;
+            }
+        } else if (left instanceof Character && right instanceof Character) {
+            return compare(operator, ((Character) left).compareTo((Character) right), left.equals(right));
+        } else if (left instanceof String && right instanceof String) {
+            if (operator.equals("+")) {
+                return (String) left + right;
+            }
+            return compare(operator, ((String) left).compareTo((String) right), left.equals(right));
+        }
+        return null;
+    }
+
+    private static Boolean compare(String operator, int comparison, boolean equal) {
+        switch (operator) {
+            case "<": return comparison < 0;
+            case "<=": return comparison <= 0;
+            case ">": return comparison > 0;
+            case ">=": return comparison >= 0;
+            case "==": return equal;
+            case "!=": return !equal;
+            default: return null;
+        }
+    }
+
+    private static BigInteger integer(BigInteger value) {
+        return value.compareTo(MIN) >= 0 && value.compareTo(MAX) <= 0 ? value : null;
+    }
+
+    private static BigDecimal decimal(BigDecimal value, double approximate) {
+        if (Double.isInfinite(approximate) || BigDecimal.valueOf(approximate).compareTo(value) != 0) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Simplifies identities with one literal operand, returning null if there
+     * are none.
+     */
+    private Ast.Expression simplify(String operator, Ast.Expression left, Ast.Expression right) {
+        Object l = left instanceof Ast.Expression.Literal ? ((Ast.Expression.Literal) left).getLiteral() : null;
+        Object r = right instanceof Ast.Expression.Literal ? ((Ast.Expression.Literal) right).getLiteral() : null;
+        switch (operator) {
+            case "&&":
+                if (Boolean.TRUE.equals(l)) {
+                    return right;
+                } else if (Boolean.TRUE.equals(r)) {
+                    return left;
+                } else if (Boolean.FALSE.equals(l) && cannotFail(right, initialized) || Boolean.FALSE.equals(r) && isDroppable(left)) {
+                    //both operands are evaluated, but the right is not checked after FALSE
+                    return literal(false);
+                }
+                return null;
+            case "||":
+                if (Boolean.FALSE.equals(l)) {
+                    return right;
+                } else if (Boolean.FALSE.equals(r)) {
+                    return left;
+                } else if (Boolean.TRUE.equals(l) || Boolean.TRUE.equals(r) && isDroppable(left)) {
+                    //the right operand of || is never evaluated after TRUE
+                    return literal(true);
+                }
+                return null;
+            case "+":
+                return BigInteger.ZERO.equals(l) && isInteger(right) ? right : BigInteger.ZERO.equals(r) && isInteger(left) ? left : null;
+            case "-":
+                return BigInteger.ZERO.equals(r) && isInteger(left) ? left : null;
+            case "*":
+                if (BigInteger.ONE.equals(l) && isInteger(right)) {
+                    return right;
+                } else if (BigInteger.ONE.equals(r) && isInteger(left)) {
+                    return left;
+                } else if (BigInteger.ZERO.equals(l) && isInteger(right) && isDroppable(right) || BigInteger.ZERO.equals(r) && isInteger(left) && isDroppable(left)) {
+                    return literal(BigInteger.ZERO);
+                }
+                return null;
+            case "/":
+                return BigInteger.ONE.equals(r) && isInteger(left) ? left : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns whether an operand whose value the operator checks can be
+     * dropped, i.e. it cannot fail and cannot be NIL.
+     */
+    private boolean isDroppable(Ast.Expression ast) {
+        return cannotFail(ast, initialized) && isNonNil(ast, initialized);
+    }
+
+    /**
+     * Identities only hold for operands known to be Integers, since the same
+     * operator also concatenates Strings and adds Decimals.
+     */
+    private static boolean isInteger(Ast.Expression ast) {
+        return annotation(ast::getType) == Environment.Type.INTEGER;
+    }
+
+}
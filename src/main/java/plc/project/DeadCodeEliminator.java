@@ -0,0 +1,207 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes code that can never run or whose result is never used, after the
+ * Analyzer:
+ *
+ * - statements following one that always returns, i.e. a RETURN or an IF
+ *   whose branches both always return;
+ * - declarations and fields that are never referenced and whose value has no
+ *   effects and cannot fail;
+ * - methods that cannot be reached from main/0.
+ *
+ * Removing one thing can make another unused, so the pass repeats until
+ * nothing changes. Variables are matched by the identity of the
+ * {@link Environment.Variable} the Analyzer attached, so shadowed names are
+ * kept apart and unanalyzed declarations are left alone.
+ */
+public final class DeadCodeEliminator extends Rewriter {
+
+    private final List<String> removed = new ArrayList<>();
+    private Set<Environment.Variable> referenced;
+    private Set<String> unresolved;
+    private Set<String> reachable;
+    private Set<Environment.Variable> initialized;
+    private String method;
+    private int changes;
+
+    /**
+     * Returns a description of everything removed so far, in order.
+     */
+    public List<String> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    @Override
+    public Ast.Source rewrite(Ast.Source ast) {
+        do {
+            changes = 0;
+            Collector collector = new Collector();
+            collector.rewrite(ast);
+            referenced = collector.referenced;
+            unresolved = collector.unresolved;
+            reachable = collector.reachable;
+            initialized = initialized(ast);
+            ast = super.rewrite(ast);
+        } while (changes > 0);
+        return ast;
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        List<Ast.Field> fields = new ArrayList<>();
+        for (Ast.Field field : ast.getFields()) {
+            Environment.Variable variable = annotation(field::getVariable);
+            if (isUnused(variable, field.getName()) && field.getValue().map(this::isRemovable).orElse(true)) {
+                remove("field " + field.getName());
+            } else {
+                fields.add((Ast.Field) visit(field));
+            }
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        for (Ast.Method method : ast.getMethods()) {
+            String signature = method.getName() + "/" + method.getParameters().size();
+            if (reachable != null && !reachable.contains(signature)) {
+                remove("method " + signature);
+            } else {
+                this.method = signature;
+                methods.add((Ast.Method) visit(method));
+            }
+        }
+        return new Ast.Source(fields, methods);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Declaration ast) {
+        Environment.Variable variable = annotation(ast::getVariable);
+        if (isUnused(variable, ast.getName()) && ast.getValue().map(this::isRemovable).orElse(true)) {
+            remove("declaration " + ast.getName() + " in " + method);
+            return null;
+        }
+        return super.visit(ast);
+    }
+
+    @Override
+    protected List<Ast.Statement> block(List<Ast.Statement> statements) {
+        List<Ast.Statement> result = super.block(statements);
+        for (int i = 0; i < result.size() - 1; i++) {
+            if (returns(result.get(i))) {
+                remove((result.size() - i - 1) + " unreachable statement(s) in " + method);
+                return new ArrayList<>(result.subList(0, i + 1));
+            }
+        }
+        return result;
+    }
+
+    private boolean isUnused(Environment.Variable variable, String name) {
+        return variable != null && !referenced.contains(variable) && !unresolved.contains(name);
+    }
+
+    private void remove(String description) {
+        removed.add(description);
+        changes++;
+    }
+
+    /**
+     * Returns whether an unused value can be dropped: it must have no effects
+     * and must not fail either, or removing it would make a failing program
+     * succeed, e.g. an unused {@code x + 1} where x was declared without a
+     * value.
+     */
+    private boolean isRemovable(Ast.Expression ast) {
+        return cannotFail(ast, initialized);
+    }
+
+    /**
+     * Returns whether the statement always returns from the method.
+     */
+    private static boolean returns(Ast.Statement ast) {
+        if (ast instanceof Ast.Statement.Return) {
+            return true;
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            return returns(statement.getThenStatements()) && returns(statement.getElseStatements());
+        }
+        return false;
+    }
+
+    private static boolean returns(List<Ast.Statement> statements) {
+        for (Ast.Statement statement : statements) {
+            if (returns(statement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the variables referenced anywhere, and the methods reachable
+     * from main/0 and field initializers (or null if there is no main/0).
+     */
+    private static final class Collector extends Rewriter {
+
+        private final Set<Environment.Variable> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+        //names of accesses the Analyzer did not resolve, which could be any variable
+        private final Set<String> unresolved = new HashSet<>();
+        private Set<String> reachable = null;
+        private final Map<String, Set<String>> calls = new HashMap<>();
+        private Set<String> current = new HashSet<>();
+
+        @Override
+        public Ast visit(Ast.Source ast) {
+            for (Ast.Field field : ast.getFields()) {
+                field.getValue().ifPresent(this::visit);
+            }
+            Set<String> roots = current;
+            for (Ast.Method method : ast.getMethods()) {
+                current = new HashSet<>();
+                calls.put(method.getName() + "/" + method.getParameters().size(), current);
+                visit(method);
+            }
+            if (calls.containsKey("main/0")) {
+                reachable = new HashSet<>();
+                Deque<String> pending = new ArrayDeque<>(roots);
+                pending.add("main/0");
+                while (!pending.isEmpty()) {
+                    String signature = pending.pop();
+                    if (reachable.add(signature)) {
+                        pending.addAll(calls.getOrDefault(signature, Collections.emptySet()));
+                    }
+                }
+            }
+            return ast;
+        }
+
+        @Override
+        public Ast visit(Ast.Expression.Access ast) {
+            Environment.Variable variable = annotation(ast::getVariable);
+            if (variable != null) {
+                referenced.add(variable);
+            } else {
+                unresolved.add(ast.getName());
+            }
+            return super.visit(ast);
+        }
+
+        @Override
+        public Ast visit(Ast.Expression.Function ast) {
+            if (!ast.getReceiver().isPresent()) {
+                current.add(ast.getName() + "/" + ast.getArguments().size());
+            }
+            return super.visit(ast);
+        }
+
+    }
+
+}
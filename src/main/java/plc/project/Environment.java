@@ -12,6 +12,24 @@ public final class Environment {
         return new PlcObject(new Scope(null), value);
     }
 
+    public static final PlcObject TRUE = create((Object) Boolean.TRUE);
+    public static final PlcObject FALSE = create((Object) Boolean.FALSE);
+
+    /**
+     * Returns the shared object for a boolean, since booleans have no fields.
+     */
+    public static PlcObject create(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    /**
+     * Concatenates two strings, deferring the copy with a {@link Rope} until
+     * the result's value is read.
+     */
+    static PlcObject concat(PlcObject left, PlcObject right) {
+        return create(Rope.concat(left.value, right.value));
+    }
+
     public static final PlcObject NIL = new PlcObject(Type.NIL, new Scope(null), new Object() {
 
         @Override
@@ -132,8 +150,20 @@ public final class Environment {
             return type;
         }
 
+        public Scope getScope() {
+            return scope;
+        }
+
         public Object getValue() {
-            return value;
+            //a rope caches its flattened string, so it is only copied once
+            return value instanceof Rope ? value.toString() : value;
+        }
+
+        /**
+         * Returns whether the value is a String, without flattening a rope.
+         */
+        boolean isString() {
+            return value instanceof String || value instanceof Rope;
         }
 
         public void setField(String name, PlcObject value) {
@@ -152,7 +182,7 @@ public final class Environment {
             return "Object{" +
                     "type=" + type +
                     ", scope=" + scope +
-                    ", value=" + value +
+                    ", value=" + getValue() +
                     '}';
         }
 
@@ -0,0 +1,28 @@
+package plc.project;
+
+/**
+ * Thrown when a program exceeds a limit set on the {@link Interpreter}.
+ */
+public final class ExecutionLimitException extends RuntimeException {
+
+    public enum Limit {
+        FUEL,
+        DEADLINE,
+        ALLOCATION,
+        CANCELLED
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final Limit limit;
+
+    public ExecutionLimitException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+}
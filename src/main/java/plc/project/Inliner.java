@@ -0,0 +1,419 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Inlines calls to small, non-recursive methods of the source, after the
+ * Analyzer.
+ *
+ * A method is small if its body has at most {@code budget} statements
+ * (counting nested ones) and its only RETURN, if any, is the last statement.
+ * Calls are inlined in two ways:
+ *
+ * - if the body is a single RETURN and every argument is a call-free,
+ *   division-free expression that can be evaluated out of order, the call is
+ *   replaced by the returned expression with the arguments substituted for
+ *   the parameters (arguments used more than once must be variables or
+ *   literals, so nothing is computed twice);
+ * - otherwise, if the call is the entire value of an expression statement,
+ *   declaration, local assignment or RETURN, the arguments are evaluated into
+ *   temporaries in order and the body is placed before the statement.
+ *
+ * Parameters and locals of the body are renamed to {@code $inl0_name},
+ * {@code $inl1_name}, ... and calls are left alone if the caller declares a
+ * name the body uses for something else, so nothing is captured.
+ */
+public final class Inliner extends Rewriter {
+
+    private final int budget;
+    private final Map<String, Ast.Method> methods = new HashMap<>();
+    private final Set<Environment.Variable> fields = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Set<String> locals = new HashSet<>();
+    private boolean statements = true;
+    private int inlined = 0;
+
+    public Inliner() {
+        this(4);
+    }
+
+    public Inliner(int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Budget must be positive.");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the number of calls inlined so far.
+     */
+    public int getInlined() {
+        return inlined;
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        for (Ast.Field field : ast.getFields()) {
+            Environment.Variable variable = annotation(field::getVariable);
+            if (variable != null) {
+                fields.add(variable);
+            }
+        }
+        Map<String, Set<String>> calls = new HashMap<>();
+        for (Ast.Method method : ast.getMethods()) {
+            Set<String> callees = new HashSet<>();
+            new Rewriter() {
+                @Override
+                public Ast visit(Ast.Expression.Function ast) {
+                    if (!ast.getReceiver().isPresent()) {
+                        callees.add(ast.getName() + "/" + ast.getArguments().size());
+                    }
+                    return super.visit(ast);
+                }
+            }.visit(method);
+            calls.put(signature(method), callees);
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            String signature = signature(method);
+            if (annotation(method::getFunction) != null && size(method.getStatements()) <= budget
+                    && returnsLast(method.getStatements()) && !reaches(calls, signature)) {
+                methods.put(signature, method);
+            }
+        }
+        return super.visit(ast);
+    }
+
+    @Override
+    public Ast visit(Ast.Method ast) {
+        locals = new HashSet<>(ast.getParameters());
+        new Rewriter() {
+            @Override
+            public Ast visit(Ast.Statement.Declaration ast) {
+                locals.add(ast.getName());
+                return super.visit(ast);
+            }
+        }.visit(ast);
+        try {
+            return super.visit(ast);
+        } finally {
+            locals = new HashSet<>();
+        }
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.For ast) {
+        //the initialization and increment are not in a block to insert into
+        boolean outer = statements;
+        statements = false;
+        Ast.Statement initialization;
+        Ast.Statement increment;
+        try {
+            initialization = ast.getInitialization() == null ? null : (Ast.Statement) visit(ast.getInitialization());
+            increment = ast.getIncrement() == null ? null : (Ast.Statement) visit(ast.getIncrement());
+        } finally {
+            statements = outer;
+        }
+        return new Ast.Statement.For(initialization, expression(ast.getCondition()), increment, block(ast.getStatements()));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Expression ast) {
+        if (!(ast.getExpression() instanceof Ast.Expression.Function)) {
+            return super.visit(ast);
+        }
+        //substituting could leave an expression that is not a valid statement
+        Ast.Expression.Function call = (Ast.Expression.Function) super.visit((Ast.Expression.Function) ast.getExpression());
+        Ast.Method callee = callee(call, false);
+        if (callee == null) {
+            return new Ast.Statement.Expression(call);
+        }
+        Optional<Ast.Expression> value = inline(callee, call);
+        //the returned value is discarded, so it only needs evaluating for its effects
+        return value.isPresent() && !isPure(value.get()) ? new Ast.Statement.Expression(value.get()) : null;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Declaration ast) {
+        Optional<Ast.Expression> value = ast.getValue().map(this::expression);
+        Ast.Method callee = value.map(expression -> callee(expression, true)).orElse(null);
+        if (callee != null) {
+            value = inline(callee, (Ast.Expression.Function) value.get());
+        }
+        Ast.Statement.Declaration result = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), value);
+        result.setVariable(annotation(ast::getVariable));
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Assignment ast) {
+        Ast.Expression value = expression(ast.getValue());
+        //the receiver of a member is evaluated before the value, so the body cannot go first
+        boolean local = ast.getReceiver() instanceof Ast.Expression.Access && !((Ast.Expression.Access) ast.getReceiver()).getReceiver().isPresent();
+        Ast.Method callee = local ? callee(value, true) : null;
+        if (callee != null) {
+            value = inline(callee, (Ast.Expression.Function) value).get();
+        }
+        return new Ast.Statement.Assignment(expression(ast.getReceiver()), value);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Return ast) {
+        Ast.Expression value = expression(ast.getValue());
+        Ast.Method callee = callee(value, true);
+        if (callee != null) {
+            value = inline(callee, (Ast.Expression.Function) value).get();
+        }
+        return new Ast.Statement.Return(value);
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Function ast) {
+        Ast.Expression.Function call = (Ast.Expression.Function) super.visit(ast);
+        Ast.Method callee = call.getReceiver().isPresent() ? null : methods.get(call.getName() + "/" + call.getArguments().size());
+        if (callee == null || callee.getStatements().size() != 1 || !(callee.getStatements().get(0) instanceof Ast.Statement.Return) || captures(callee)) {
+            return call;
+        }
+        Ast.Expression body = ((Ast.Statement.Return) callee.getStatements().get(0)).getValue();
+        Map<String, Integer> uses = new HashMap<>();
+        new Rewriter() {
+            @Override
+            public Ast visit(Ast.Expression.Access ast) {
+                if (!ast.getReceiver().isPresent()) {
+                    uses.merge(ast.getName(), 1, Integer::sum);
+                }
+                return super.visit(ast);
+            }
+        }.visit(body);
+        Map<String, Ast.Expression> arguments = new HashMap<>();
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            Ast.Expression argument = call.getArguments().get(i);
+            boolean simple = argument instanceof Ast.Expression.Literal
+                    || argument instanceof Ast.Expression.Access && !((Ast.Expression.Access) argument).getReceiver().isPresent();
+            //the argument is evaluated when the body reaches it, possibly after calls in the body
+            if (!isMovable(argument, isPure(body)) || !simple && uses.getOrDefault(callee.getParameters().get(i), 0) > 1) {
+                return call;
+            }
+            arguments.put(callee.getParameters().get(i), argument);
+        }
+        inlined++;
+        return group(new Substituter(arguments).expression(body));
+    }
+
+    /**
+     * Returns the method to inline a call to at statement level, or null if
+     * the expression is not such a call.
+     */
+    private Ast.Method callee(Ast.Expression ast, boolean value) {
+        if (!statements || !(ast instanceof Ast.Expression.Function) || ((Ast.Expression.Function) ast).getReceiver().isPresent()) {
+            return null;
+        }
+        Ast.Expression.Function call = (Ast.Expression.Function) ast;
+        Ast.Method callee = methods.get(call.getName() + "/" + call.getArguments().size());
+        if (callee == null || captures(callee)) {
+            return null;
+        }
+        List<Ast.Statement> body = callee.getStatements();
+        Ast.Statement last = body.isEmpty() ? null : body.get(body.size() - 1);
+        if (!(last instanceof Ast.Statement.Return)) {
+            return value ? null : callee;
+        }
+        Ast.Expression result = ((Ast.Statement.Return) last).getValue();
+        return value || isPure(result) || result instanceof Ast.Expression.Function ? callee : null;
+    }
+
+    /**
+     * Inserts the argument temporaries and renamed body before the current
+     * statement, returning the renamed returned expression if there is one.
+     * The arguments of the call must already be rewritten.
+     */
+    private Optional<Ast.Expression> inline(Ast.Method callee, Ast.Expression.Function call) {
+        String prefix = "$inl" + inlined++ + "_";
+        Map<String, Environment.Variable> renamed = new HashMap<>();
+        List<Environment.Type> types = callee.getFunction().getParameterTypes();
+        for (int i = 0; i < callee.getParameters().size(); i++) {
+            String name = prefix + callee.getParameters().get(i);
+            Environment.Variable variable = new Environment.Variable(name, name, types.get(i), false, Environment.NIL);
+            renamed.put(callee.getParameters().get(i), variable);
+            Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(name, Optional.of(types.get(i).getName()), Optional.of(call.getArguments().get(i)));
+            declaration.setVariable(variable);
+            insert(declaration);
+        }
+        new Rewriter() {
+            @Override
+            public Ast visit(Ast.Statement.Declaration ast) {
+                String name = prefix + ast.getName();
+                renamed.put(ast.getName(), new Environment.Variable(name, name, ast.getVariable().getType(), false, Environment.NIL));
+                return super.visit(ast);
+            }
+        }.visit(callee);
+        Substituter substituter = new Substituter(renamed);
+        for (Ast.Statement statement : callee.getStatements()) {
+            if (statement instanceof Ast.Statement.Return) {
+                return Optional.of(substituter.expression(((Ast.Statement.Return) statement).getValue()));
+            }
+            insert((Ast.Statement) substituter.visit(statement));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns whether the caller declares a name that the body of the callee
+     * uses to refer to a field.
+     */
+    private boolean captures(Ast.Method callee) {
+        Set<String> free = new HashSet<>();
+        new Rewriter() {
+            @Override
+            public Ast visit(Ast.Expression.Access ast) {
+                Environment.Variable variable = annotation(ast::getVariable);
+                if (!ast.getReceiver().isPresent() && (variable == null || fields.contains(variable))) {
+                    free.add(ast.getName());
+                }
+                return super.visit(ast);
+            }
+        }.visit(callee);
+        free.retainAll(locals);
+        return !free.isEmpty();
+    }
+
+    /**
+     * Returns whether the expression can be evaluated at a different point, or
+     * not at all, without changing the result: it contains no calls or
+     * divisions, and reads no fields if calls could happen in between.
+     */
+    private boolean isMovable(Ast.Expression ast, boolean pure) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return isMovable(((Ast.Expression.Group) ast).getExpression(), pure);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            return !binary.getOperator().equals("/") && isMovable(binary.getLeft(), pure) && isMovable(binary.getRight(), pure);
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            Environment.Variable variable = annotation(access::getVariable);
+            return !access.getReceiver().isPresent() && variable != null && (pure || !fields.contains(variable));
+        }
+        return false;
+    }
+
+    private static Ast.Expression group(Ast.Expression ast) {
+        if (!(ast instanceof Ast.Expression.Binary)) {
+            return ast;
+        }
+        Ast.Expression.Group group = new Ast.Expression.Group(ast);
+        group.setType(annotation(ast::getType));
+        return group;
+    }
+
+    private static String signature(Ast.Method method) {
+        return method.getName() + "/" + method.getParameters().size();
+    }
+
+    private static int size(List<Ast.Statement> statements) {
+        int size = 0;
+        for (Ast.Statement statement : statements) {
+            size++;
+            if (statement instanceof Ast.Statement.If) {
+                size += size(((Ast.Statement.If) statement).getThenStatements()) + size(((Ast.Statement.If) statement).getElseStatements());
+            } else if (statement instanceof Ast.Statement.For) {
+                size += size(((Ast.Statement.For) statement).getStatements());
+            } else if (statement instanceof Ast.Statement.While) {
+                size += size(((Ast.Statement.While) statement).getStatements());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns whether the only RETURN in the statements, if any, is the last
+     * statement.
+     */
+    private static boolean returnsLast(List<Ast.Statement> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            boolean last = i == statements.size() - 1 && statement instanceof Ast.Statement.Return;
+            if (!last && returns(statement)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean returns(Ast.Statement statement) {
+        if (statement instanceof Ast.Statement.Return) {
+            return true;
+        } else if (statement instanceof Ast.Statement.If) {
+            return ((Ast.Statement.If) statement).getThenStatements().stream().anyMatch(Inliner::returns)
+                    || ((Ast.Statement.If) statement).getElseStatements().stream().anyMatch(Inliner::returns);
+        } else if (statement instanceof Ast.Statement.For) {
+            return ((Ast.Statement.For) statement).getStatements().stream().anyMatch(Inliner::returns);
+        } else if (statement instanceof Ast.Statement.While) {
+            return ((Ast.Statement.While) statement).getStatements().stream().anyMatch(Inliner::returns);
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a method can call itself, directly or indirectly.
+     */
+    private static boolean reaches(Map<String, Set<String>> calls, String signature) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(calls.getOrDefault(signature, Collections.emptySet()));
+        while (!pending.isEmpty()) {
+            String callee = pending.pop();
+            if (callee.equals(signature)) {
+                return true;
+            } else if (visited.add(callee)) {
+                pending.addAll(calls.getOrDefault(callee, Collections.emptySet()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces variables of the callee with renamed variables or argument
+     * expressions.
+     */
+    private final class Substituter extends Rewriter {
+
+        private final Map<String, ?> replacements;
+
+        private Substituter(Map<String, ?> replacements) {
+            this.replacements = replacements;
+        }
+
+        @Override
+        public Ast visit(Ast.Statement.Declaration ast) {
+            Environment.Variable variable = (Environment.Variable) replacements.get(ast.getName());
+            Ast.Statement.Declaration result = new Ast.Statement.Declaration(variable.getName(), Optional.of(variable.getType().getName()), ast.getValue().map(this::expression));
+            result.setVariable(variable);
+            return result;
+        }
+
+        @Override
+        public Ast visit(Ast.Expression.Access ast) {
+            Environment.Variable variable = annotation(ast::getVariable);
+            Object replacement = ast.getReceiver().isPresent() || fields.contains(variable) ? null : replacements.get(ast.getName());
+            if (replacement instanceof Environment.Variable) {
+                Ast.Expression.Access result = new Ast.Expression.Access(Optional.empty(), ((Environment.Variable) replacement).getName());
+                result.setVariable((Environment.Variable) replacement);
+                return result;
+            } else if (replacement != null) {
+                return group((Ast.Expression) replacement);
+            }
+            return super.visit(ast);
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link Interpreter} that counts how often each statement and expression
+ * is evaluated and how long it takes, for finding hot paths. It is a separate
+ * class so the plain Interpreter pays nothing for it.
+ *
+ * Each node has a total time, including the nodes it evaluates, and a self
+ * time, excluding them. Time spent in a method is part of the call that
+ * invoked it. A call made by a RETURN to another method is run by the
+ * caller's trampoline, so it is counted, but its time is part of the call
+ * that invoked the caller. Nodes are reported with the source index from
+ * {@link Ast#getIndex()}.
+ */
+public class InstrumentedInterpreter extends Interpreter {
+
+    private final Map<Ast, Counter> counters = new IdentityHashMap<>();
+    //time spent in the children of each node being evaluated
+    private long[] children = new long[64];
+    private int depth = 0;
+
+    public InstrumentedInterpreter(Scope parent) {
+        super(parent);
+    }
+
+    /**
+     * Returns the counters of every node evaluated so far.
+     */
+    public Collection<Counter> getCounters() {
+        return Collections.unmodifiableCollection(counters.values());
+    }
+
+    /**
+     * Returns up to n counters with the highest self time, highest first.
+     */
+    public List<Counter> getHottest(int n) {
+        List<Counter> hottest = new ArrayList<>(counters.values());
+        hottest.sort(Comparator.comparingLong(Counter::getSelfNanos).reversed());
+        return hottest.subList(0, Math.min(n, hottest.size()));
+    }
+
+    /**
+     * Returns the counters of unqualified calls combined per method, keyed by
+     * name/arity.
+     */
+    public Map<String, Counter> getMethods() {
+        Map<String, Counter> methods = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            if (counter.node instanceof Ast.Expression.Function && !((Ast.Expression.Function) counter.node).getReceiver().isPresent()) {
+                Ast.Expression.Function call = (Ast.Expression.Function) counter.node;
+                Counter method = methods.computeIfAbsent(call.getName() + "/" + call.getArguments().size(), name -> new Counter(null));
+                method.count += counter.count;
+                method.totalNanos += counter.totalNanos;
+                method.selfNanos += counter.selfNanos;
+            }
+        }
+        return methods;
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Expression ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Declaration ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Assignment ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.If ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.For ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.While ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Statement.Return ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Literal ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Group ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Binary ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Access ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    public Environment.PlcObject visit(Ast.Expression.Function ast) {
+        long start = enter();
+        try {
+            return super.visit(ast);
+        } finally {
+            exit(ast, start);
+        }
+    }
+
+    @Override
+    void tailCall(Ast.Expression.Function call) {
+        counter(call).count++;
+    }
+
+    private long enter() {
+        if (depth == children.length) {
+            long[] children = new long[depth * 2];
+            System.arraycopy(this.children, 0, children, 0, depth);
+            this.children = children;
+        }
+        children[depth++] = 0;
+        return System.nanoTime();
+    }
+
+    private void exit(Ast ast, long start) {
+        long elapsed = System.nanoTime() - start;
+        Counter counter = counter(ast);
+        counter.count++;
+        counter.totalNanos += elapsed;
+        counter.selfNanos += elapsed - children[--depth];
+        if (depth > 0) {
+            children[depth - 1] += elapsed;
+        }
+    }
+
+    private Counter counter(Ast ast) {
+        Counter counter = counters.get(ast);
+        if (counter == null) {
+            counter = new Counter(ast);
+            counters.put(ast, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * The number of evaluations of a node and the time they took.
+     */
+    public static final class Counter {
+
+        private final Ast node;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long selfNanos = 0;
+
+        private Counter(Ast node) {
+            this.node = node;
+        }
+
+        /**
+         * Returns the node counted, or null for combined counters.
+         */
+        public Ast getNode() {
+            return node;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getSelfNanos() {
+            return selfNanos;
+        }
+
+        @Override
+        public String toString() {
+            String name = node == null ? "" : node.getClass().getSimpleName() + (node.getIndex() < 0 ? "" : "@" + node.getIndex()) + " ";
+            return name + count + " evaluations, " + selfNanos / 1000 + "us self, " + totalNanos / 1000 + "us total";
+        }
+
+    }
+
+}
@@ -1,48 +1,288 @@
 package plc.project;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
 import java.util.Objects;
 import java.math.BigInteger;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     private Scope scope = new Scope(null);
+    //the program this interpreter executes, if created for a ProgramImage
+    private ProgramImage image = null;
+    //the variables of the image's non-shared fields, in order, as executions define them
+    private final List<Environment.Variable> globals = new ArrayList<>();
+    //where print writes, and the image's print, which writes to this interpreter's sink
+    private PrintSink sink = PrintSink.STDOUT;
+    private Environment.Function imagePrint = null;
+    //methods defined by this interpreter, which tail calls can re-enter without recursing
+    private final Map<Environment.Function, Closure> closures = new IdentityHashMap<>();
+    //memoization is off unless a capacity is set, see enableMemoization
+    private int memoCapacity = 0;
+    private Set<Ast.Method> pureMethods = Collections.emptySet();
+    private final Map<String, Memo> memos = new LinkedHashMap<>();
+    //the call stack sampled by a profiler, or null if profiling is off
+    private Profiler.Stack stack = null;
+    //remaining fuel, charged per statement and loop iteration and checked at loop back-edges and calls
+    private long fuel = Long.MAX_VALUE;
+    private boolean fueled = false;
+    //the deadline and allocation limit are only checked every CHECK_INTERVAL checks, if set
+    private static final int CHECK_INTERVAL = 1024;
+    private boolean limited = false;
+    //set from another thread by cancel
+    private volatile boolean cancelled = false;
+    private int checks = 0;
+    private long deadline = 0;
+    private boolean hasDeadline = false;
+    private long allocationLimit = -1;
+    private long allocationBase = -1;
+    //the pool parallel FOR loops run on, or null if loops run sequentially, see enableParallelLoops
+    private ForkJoinPool loopPool = null;
+    private final Map<Ast.Statement.For, ParallelLoop> loops = new IdentityHashMap<>();
+    //the loop a worker runs iterations of, and the values each of its reductions has combined so far
+    private ParallelLoop loop = null;
+    private Map<String, Environment.PlcObject> partials = null;
 
     public Interpreter(Scope parent) {
         scope = new Scope(parent);
-        scope.defineFunction("print", 1, args -> {
-            System.out.println(args.get(0).getValue());
-            return Environment.NIL;
-        });
+        scope.defineFunction("print", 1, this::print);
+    }
+
+    /**
+     * Creates an interpreter for one execution of a loaded program. Its
+     * globals are separate from those of every other execution.
+     */
+    public static Interpreter of(ProgramImage image) {
+        return new Interpreter(image);
+    }
+
+    //private, so new Interpreter(null) still means a null parent scope
+    private Interpreter(ProgramImage image) {
+        this.image = image;
+        scope = new Scope(image.getScope());
+        imagePrint = image.getScope().lookupFunction("print", 1);
+        for (Map.Entry<Environment.Function, Ast.Method> method : image.getMethods().entrySet()) {
+            closures.put(method.getKey(), new Closure(method.getValue(), scope, null));
+        }
     }
 
     public Scope getScope() {
         return scope;
     }
 
+    /**
+     * Executes the program this interpreter was created for, evaluating its
+     * non-shared fields and returning the result of main/0. Executing again
+     * re-evaluates the fields into the same globals, so one interpreter can
+     * run the program many times without being rebuilt.
+     */
+    public Environment.PlcObject execute() {
+        if (image == null) {
+            throw new IllegalStateException("Interpreter was not created for a ProgramImage.");
+        }
+        List<Ast.Field> fields = image.getFields();
+        //fields are defined on first use, so an execution that failed part way still leaves them consistent
+        for (int i = 0; i < fields.size(); i++) {
+            Ast.Field field = fields.get(i);
+            if (i < globals.size()) {
+                globals.get(i).setValue(field.getValue().isPresent() ? visit(field.getValue().get()) : Environment.NIL);
+            } else {
+                visit(field);
+                globals.add(scope.lookupVariable(field.getName()));
+            }
+        }
+        return call("main", List.of());
+    }
+
+    /**
+     * Calls the function with the given name and arguments in the global
+     * scope.
+     */
+    public Environment.PlcObject call(String name, List<Environment.PlcObject> arguments) {
+        Environment.Function function = scope.lookupFunction(name, arguments.size());
+        Closure closure = closures.get(function);
+        return closure == null ? invoke(function, arguments) : call(closure, arguments);
+    }
+
+    /**
+     * Caches the results of pure methods of sources visited after this call,
+     * keeping up to capacity argument lists per method. See PurityAnalyzer.
+     * Not available for interpreters executing a {@link ProgramImage}.
+     */
+    public void enableMemoization(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Memoization capacity must be positive.");
+        } else if (image != null) {
+            throw new IllegalStateException("Memoization is not available when executing a program image.");
+        }
+        memoCapacity = capacity;
+    }
+
+    /**
+     * Runs FOR loops whose iterations are independent on the given pool, for
+     * sources visited after this call. See ParallelLoop for the loops this
+     * applies to. Reductions are combined in iteration order, so results are
+     * the same as running sequentially. Loops run sequentially while
+     * memoization, profiling or limits are enabled.
+     */
+    public void enableParallelLoops(ForkJoinPool pool) {
+        loopPool = pool;
+    }
+
+    /**
+     * Creates a worker running iterations of a parallel loop in the given
+     * scope, calling the methods of the parent.
+     */
+    private Interpreter(Interpreter parent, Scope scope, ParallelLoop loop) {
+        this.scope = scope;
+        this.image = parent.image;
+        this.closures.putAll(parent.closures);
+        this.pureMethods = parent.pureMethods;
+        this.sink = parent.sink;
+        this.imagePrint = parent.imagePrint;
+        this.loop = loop;
+        this.partials = new HashMap<>();
+    }
+
+    /**
+     * Sets where print writes its lines, System.out by default. The sink is
+     * not flushed or closed by the interpreter.
+     */
+    public void setSink(PrintSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Keeps a call stack for the profiler to sample from now on.
+     */
+    public void enableProfiling(Profiler profiler) {
+        stack = profiler.register();
+    }
+
+    /**
+     * Limits execution to the given amount of fuel. Each statement and loop
+     * iteration costs one unit, and running out throws an
+     * ExecutionLimitException at the next loop iteration or call.
+     */
+    public void setFuel(long fuel) {
+        if (fuel < 0) {
+            throw new IllegalArgumentException("Fuel must not be negative.");
+        }
+        this.fuel = fuel;
+        fueled = true;
+    }
+
+    /**
+     * Returns the remaining fuel, which is negative once it has run out.
+     */
+    public long getFuel() {
+        return fuel;
+    }
+
+    /**
+     * Limits execution to the given time from now. It is checked at loop
+     * iterations and calls, so may be overrun by the time a few thousand of
+     * them take.
+     */
+    public void setDeadline(Duration timeout) {
+        deadline = System.nanoTime() + timeout.toNanos();
+        hasDeadline = true;
+        limited = true;
+    }
+
+    /**
+     * Limits the bytes allocated by the thread running the program from its
+     * next loop iteration or call on, checked as often as the deadline. This
+     * needs a JVM that measures allocation per thread, such as HotSpot.
+     */
+    public void setAllocationLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Allocation limit must not be negative.");
+        }
+        if (allocated() < 0) {
+            throw new UnsupportedOperationException("This JVM does not measure allocation per thread.");
+        }
+        allocationLimit = bytes;
+        allocationBase = -1;
+        limited = true;
+    }
+
+    /**
+     * Makes the program fail with an ExecutionLimitException at its next
+     * loop iteration or call. Unlike the limits, this may be called from any
+     * thread while the program runs.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the memo tables of memoized methods, keyed by name/arity.
+     */
+    public Map<String, Memo> getMemos() {
+        return Collections.unmodifiableMap(memos);
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Source ast) {
         /*Evaluates globals followed by functions. Returns the result of calling the main/0 function.*/
+        load(ast);
+
+        //call the main function with arity 0, else throw runtime error
+        Environment.Function funct = scope.lookupFunction("main", 0);
+        if (funct == null) {
+            throw new RuntimeException("Runtime error in source main/0 function is not defined.");
+        }
+        //invoke main/0
+        return funct.invoke(List.of());
+    }
+
+    /**
+     * Evaluates the fields and defines the methods of a source, without
+     * calling main/0.
+     */
+    public void load(Ast.Source ast) {
         //first eval global fields
         for (Ast.Field field : ast.getFields()) {
             visit(field);
         }
+        define(ast);
+    }
+
+    /**
+     * Loads a source like {@link #load(Ast.Source)}, but defines its fields
+     * with the values saved in the snapshot instead of evaluating them.
+     */
+    public void load(Ast.Source ast, Snapshot snapshot) {
+        snapshot.restore(ast, scope);
+        define(ast);
+    }
+
+    private void define(Ast.Source ast) {
+        //find the methods that can be memoized, if enabled
+        if (memoCapacity > 0 || loopPool != null) {
+            pureMethods = PurityAnalyzer.analyze(ast);
+        }
 
         //def each funct
         for (Ast.Method method : ast.getMethods()) {
             visit(method);
         }
-
-        //call the main function with arity 0, else throw runtime error
-        Environment.Function funct = scope.lookupFunction("main", 0);
-        if (funct == null) {
-            throw new RuntimeException("Runtime error in source main/0 function is not defined.");
-        }
-        //invoke main/0
-        return funct.invoke(List.of());
     }
 
     @Override
@@ -66,34 +306,86 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Method ast) {
         //make sure to def funct in curr scope
-        scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> {
-            //scope for method
-            Scope methodScope = new Scope(scope);
+        //the method's scope is parented on the scope it is defined in
+        Memo memo = memoCapacity > 0 && pureMethods.contains(ast) ? new Memo(memoCapacity) : null;
+        Closure closure = new Closure(ast, scope, memo);
+        Environment.Function function = scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> call(closure, args));
+        closures.put(function, closure);
+        if (memo != null) {
+            memos.put(ast.getName() + "/" + ast.getParameters().size(), memo);
+        }
 
-            //def the var within the method's scope
-            for (int i = 0; i < ast.getParameters().size(); i++) {
-                methodScope.defineVariable(ast.getParameters().get(i), false, args.get(i));
-            }
+        //visit(Ast.Method) should return NIL
+        return Environment.NIL;
+    }
 
-            //copy the previous scope to restore later when done with this method call
-            Scope prev = scope;
-            scope = methodScope;
+    private Environment.PlcObject print(List<Environment.PlcObject> args) {
+        sink.print(String.valueOf(args.get(0).getValue()));
+        return Environment.NIL;
+    }
+
+    /**
+     * Invokes a function that is not one of our methods.
+     */
+    private Environment.PlcObject invoke(Environment.Function function, List<Environment.PlcObject> args) {
+        return function == imagePrint ? print(args) : function.invoke(args);
+    }
+
+    private Environment.PlcObject call(Closure closure, List<Environment.PlcObject> args) {
+        return closure.memo == null ? invoke(closure, args) : closure.memo.invoke(args, a -> invoke(closure, a));
+    }
+
+    /**
+     * Runs a method as a trampoline: a RETURN of a call to another method of
+     * this interpreter unwinds to here and the loop continues with the callee,
+     * so tail calls run in constant Java stack.
+     */
+    private Environment.PlcObject invoke(Closure closure, List<Environment.PlcObject> args) {
+        //copy the previous scope to restore later when done with this method call
+        Scope prev = scope;
+        if (stack != null) {
+            stack.push(closure.method);
+        }
+        try {
+            while (true) {
+                //each tail call is checked, or a tail-recursive loop would never be
+                check();
+                //scope for method, unless it has no parameters or locals
+                Scope methodScope = closure.method.isScoped() ? new Scope(closure.scope) : closure.scope;
+
+                //def the var within the method's scope
+                for (int i = 0; i < closure.method.getParameters().size(); i++) {
+                    methodScope.defineVariable(closure.method.getParameters().get(i), false, args.get(i));
+                }
+                scope = methodScope;
 
-            Environment.PlcObject result = Environment.NIL;
-            for (Ast.Statement statement : ast.getStatements()) {
                 try {
-                    visit(statement); //eval each statement
+                    for (Ast.Statement statement : closure.method.getStatements()) {
+                        if (stack != null) {
+                            stack.statement(statement);
+                        }
+                        fuel--;
+                        visit(statement); //eval each statement
+                    }
+                    return Environment.NIL; //if no return val specified, return NIL
                 } catch (Return returnValue) {
-                    result = returnValue.value; ////return the val if present
-                    break;
+                    if (returnValue.callee == null) {
+                        return returnValue.value; //return the val if present
+                    }
+                    closure = returnValue.callee;
+                    args = returnValue.arguments;
+                    fuel--;
+                    if (stack != null) {
+                        stack.replace(closure.method);
+                    }
                 }
             }
+        } finally {
             scope = prev; //restore scope
-            return result; //if no return val specified, return NIL
-        });
-
-        //visit(Ast.Method) should return NIL
-        return Environment.NIL;
+            if (stack != null) {
+                stack.pop();
+            }
+        }
     }
 
     @Override
@@ -121,6 +413,15 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Assignment ast) {
+        //a worker of a parallel loop combines reductions into its partial result
+        if (loop != null) {
+            ParallelLoop.Reduction reduction = loop.getReductions().get(ast);
+            if (reduction != null) {
+                reduce(reduction, visit(reduction.getOperand()));
+                return Environment.NIL;
+            }
+        }
+
         //first make sure it's of type Ast.Expression.Access
         if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
             throw new RuntimeException("receiver is not of type Ast.Expression.Access :(");
@@ -172,35 +473,26 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         //determine whether condition value is true or false boolean
         Boolean conditionValue = (Boolean)condition.getValue();
 
-        //set new scope and save prev one
-        Scope ifScope = new Scope(scope);
-        Scope prevScope = scope;
-        scope = ifScope;
-
-        List<Ast.Statement> ifStatements;
         if(conditionValue){ //if condition==TRUE
-            ifStatements = ast.getThenStatements(); //get then statements
+            block(ast.getThenStatements(), ast.isThenScoped()); //eval then statements
         }
         else{ //if FALSE
-            ifStatements = ast.getElseStatements(); //get else statements
-        }
-
-        for (Ast.Statement statement : ifStatements) {
-            visit(statement); //evaluate each statement
+            block(ast.getElseStatements(), ast.isElseScoped()); //eval else statements
         }
 
-        scope = prevScope; //restore scope
         return Environment.NIL; //return NIL
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.For ast) {
-        visit(ast.getInitialization()); //eval init statement b4 loop
-
-        Scope forScope = new Scope(scope);
-        Scope prevScope = scope;
-        scope = forScope;
+        if (ast.getInitialization() != null) {
+            visit(ast.getInitialization()); //eval init statement b4 loop
+        }
 
+        //independent iterations may run in parallel, else (or if that fails) run them in order
+        if (loopPool != null && parallel(ast)) {
+            return Environment.NIL;
+        }
 
         while (true) {
             Environment.PlcObject condition = visit(ast.getCondition());
@@ -214,24 +506,119 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
                 break;
             }
 
-            //if condition==TRUE
-            for (Ast.Statement statement : ast.getStatements()) {
-                visit(statement); //evaluate each statement
-            }
+            //if condition==TRUE, evaluate each statement
+            block(ast.getStatements(), ast.isScoped());
 
-            visit(ast.getIncrement()); //evaluate the increment statement (i++)
+            if (ast.getIncrement() != null) {
+                visit(ast.getIncrement()); //evaluate the increment statement (i++)
+            }
+            fuel--;
+            check();
         }
 
-        scope = prevScope; //restore scope
         return Environment.NIL; //return NIL
     }
 
+    /**
+     * Runs the iterations of a loop that ParallelLoop proves independent in
+     * chunks on the loop pool, after its initialization. Returns false if the
+     * loop must run sequentially instead, which is safe even after a chunk
+     * failed since iterations only change their own locals until the
+     * reductions are merged.
+     */
+    private boolean parallel(Ast.Statement.For ast) {
+        if (memoCapacity > 0 || stack != null || limited || fueled) {
+            return false;
+        }
+        if (!loops.containsKey(ast)) {
+            loops.put(ast, ParallelLoop.analyze(ast, this::isPure));
+        }
+        ParallelLoop loop = loops.get(ast);
+        if (loop == null) {
+            return false;
+        }
+        Environment.Variable variable = scope.lookupVariable(loop.getVariable());
+        Object start = variable.getValue().getValue();
+        Object bound = visit(loop.getBound()).getValue();
+        if (!(start instanceof BigInteger) || !(bound instanceof BigInteger)) {
+            return false;
+        }
+        BigInteger span = ((BigInteger) bound).subtract((BigInteger) start).add(loop.isInclusive() ? BigInteger.ONE : BigInteger.ZERO);
+        BigInteger count = span.add(loop.getStep()).subtract(BigInteger.ONE).divide(loop.getStep());
+        if (count.compareTo(BigInteger.TWO) < 0 || count.bitLength() > 62) {
+            return false;
+        }
+        Map<String, Environment.Variable> reduced = new LinkedHashMap<>();
+        for (ParallelLoop.Reduction reduction : loop.getReductions().values()) {
+            Environment.Variable target = scope.lookupVariable(reduction.getName());
+            Object value = target.getValue().getValue();
+            if (target.getConstant() || !(value instanceof BigInteger) && !(value instanceof BigDecimal)) {
+                return false;
+            }
+            reduced.put(reduction.getName(), target);
+        }
+        long iterations = count.longValue();
+        int chunks = (int) Math.min(iterations, loopPool.getParallelism() * 4L);
+        Scope loopScope = scope;
+        List<Callable<Map<String, Environment.PlcObject>>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            long from = iterations * chunk / chunks;
+            long to = iterations * (chunk + 1) / chunks;
+            tasks.add(() -> {
+                Interpreter worker = new Interpreter(this, new Scope(loopScope), loop);
+                Environment.Variable index = worker.scope.defineVariable(loop.getVariable(), loop.getVariable(), Environment.Type.ANY, false, Environment.NIL);
+                for (long i = from; i < to; i++) {
+                    index.setValue(Environment.create(((BigInteger) start).add(loop.getStep().multiply(BigInteger.valueOf(i)))));
+                    worker.block(ast.getStatements(), ast.isScoped());
+                }
+                return worker.partials;
+            });
+        }
+        //combine each reduction's partial results in iteration order
+        Map<String, Environment.PlcObject> merged = new HashMap<>();
+        try {
+            for (Future<Map<String, Environment.PlcObject>> result : loopPool.invokeAll(tasks)) {
+                for (Map.Entry<String, Environment.PlcObject> partial : result.get().entrySet()) {
+                    Environment.PlcObject value = merged.containsKey(partial.getKey()) ? merged.get(partial.getKey()) : reduced.get(partial.getKey()).getValue();
+                    merged.put(partial.getKey(), combine(loop.getOperators().get(partial.getKey()), value, partial.getValue()));
+                }
+            }
+        } catch (ExecutionException | RuntimeException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        merged.forEach((name, value) -> reduced.get(name).setValue(value));
+        variable.setValue(Environment.create(((BigInteger) start).add(loop.getStep().multiply(count))));
+        return true;
+    }
+
+    private boolean isPure(Ast.Expression.Function ast) {
+        Closure closure;
+        try {
+            closure = closures.get(scope.lookupFunction(ast.getName(), ast.getArguments().size()));
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return closure != null && pureMethods.contains(closure.method);
+    }
+
+    private void reduce(ParallelLoop.Reduction reduction, Environment.PlcObject value) {
+        //other values could be combined differently in order, so make the loop run sequentially
+        if (!(value.getValue() instanceof BigInteger) && !(value.getValue() instanceof BigDecimal)) {
+            throw new RuntimeException("Cannot reduce " + value.getValue() + " in parallel.");
+        }
+        Environment.PlcObject partial = partials.get(reduction.getName());
+        partials.put(reduction.getName(), partial == null ? value : combine(reduction.getOperator(), partial, value));
+    }
+
+    private Environment.PlcObject combine(String operator, Environment.PlcObject left, Environment.PlcObject right) {
+        return visit(new Ast.Expression.Binary(operator, new Ast.Expression.Literal(left.getValue()), new Ast.Expression.Literal(right.getValue())));
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Statement.While ast) {
-        Scope whileScope = new Scope(scope);
-        Scope prevScope = scope;
-        scope = whileScope;
-
         while (true) {
             Environment.PlcObject condition = visit(ast.getCondition()); //re-evaluate condition
 
@@ -246,21 +633,63 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             }
 
             //if TRUE, eval statements
-            for (Ast.Statement statement : ast.getStatements()) {
+            block(ast.getStatements(), ast.isScoped());
+            fuel--;
+            check();
+        }
+        return Environment.NIL;  //return NIL
+    }
+
+    /**
+     * Evaluates a block, in a new scope only if it declares variables. Loop
+     * bodies get a fresh scope each iteration, so their declarations do not
+     * collide with the previous iteration's.
+     */
+    private void block(List<Ast.Statement> statements, boolean scoped) {
+        Scope prevScope = scope;
+        if (scoped) {
+            scope = new Scope(scope);
+        }
+        try {
+            for (Ast.Statement statement : statements) {
+                if (stack != null) {
+                    stack.statement(statement);
+                }
+                fuel--;
                 visit(statement);
             }
+        } finally {
+            scope = prevScope; //restore scope
         }
-        scope = prevScope; //restore scope
-        return Environment.NIL;  //return NIL
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Return ast) {
         //Evaluates the value and throws it inside in a Return exception
+        if (ast.getValue() instanceof Ast.Expression.Function && !((Ast.Expression.Function) ast.getValue()).getReceiver().isPresent()) {
+            //a call in tail position is handed back to the caller's trampoline if it is one of ours
+            Ast.Expression.Function call = (Ast.Expression.Function) ast.getValue();
+            List<Environment.PlcObject> arguments = evaluate(call.getArguments(), 0);
+            Environment.Function function = call.getCallCache().lookup(scope);
+            Closure callee = closures.get(function);
+            //memoized methods are called normally so their result is cached
+            if (callee != null && callee.memo == null) {
+                tailCall(call);
+                throw new Return(callee, arguments);
+            }
+            throw new Return(invoke(function, arguments));
+        }
         Environment.PlcObject val = visit(ast.getValue());
         throw new Return(val);
     }
 
+    /**
+     * Called when a call is handed back to the trampoline, for subclasses
+     * that count calls, since the call's node is then never visited.
+     */
+    void tailCall(Ast.Expression.Function call) {
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Expression.Literal ast) {
         // for our prog, null should be changes to our own representation of NIL
@@ -295,14 +724,19 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             // now define the right expression for this case
             Environment.PlcObject right = visit(ast.getRight());
             requireType(Boolean.class, right);
-            return Environment.create((Boolean) right.getValue());
+            return Environment.create(requireType(Boolean.class, right).booleanValue());
         }
 
         // now can create right expression operator
 
         // continue with all other operations
         Environment.PlcObject right = visit(ast.getRight());
-        if (ast.getOperator().equals("&&")) {
+        // <, <=, > and >= compare with the types the Analyzer recorded
+        Comparison comparison = ast.getComparison();
+        if (comparison != null) {
+            return comparison.evaluate(left, right);
+        }
+        else if (ast.getOperator().equals("&&")) {
             // check that left expression is true
             requireType(Boolean.class, left);
             // if left is false, stop here
@@ -313,38 +747,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             requireType(Boolean.class, right);
             // if it is, the environment object returned is true
             // if its false, returns false
-            return Environment.create((Boolean) right.getValue());
-        }
-        else if (ast.getOperator().equals("<")) {
-            // ensure left exp is Comparable
-            requireType(Comparable.class, left);
-            // ensure right is same type as left
-            requireType(left.getValue().getClass(), right);
-            // perform the comparison
-            int comparison = ((Comparable) left.getValue()).compareTo(right.getValue());
-            return Environment.create(comparison < 0);
-        }
-        else if (ast.getOperator().equals("<=")) {
-            // same as above, but if <=, comparison is <= 0
-            requireType(Comparable.class, left);
-            requireType(left.getValue().getClass(), right);
-            int comparison = ((Comparable) left.getValue()).compareTo(right.getValue());
-            return Environment.create(comparison <= 0);
-        }
-        else if (ast.getOperator().equals(">")) {
-            // same steps, but check if comparison > 0
-            requireType(Comparable.class, left);
-            requireType(left.getValue().getClass(), right);
-            int comparison = ((Comparable) left.getValue()).compareTo(right.getValue());
-            return Environment.create(comparison > 0);
-        }
-        else if (ast.getOperator().equals(">=")) {
-            // same as above (there is def a more efficient way to do this)
-            // but check if comparison <= 0
-            requireType(Comparable.class, left);
-            requireType(left.getValue().getClass(), right);
-            int comparison = ((Comparable) left.getValue()).compareTo(right.getValue());
-            return Environment.create(comparison > 0);
+            return Environment.create(requireType(Boolean.class, right).booleanValue());
         }
         else if (ast.getOperator().equals("==")) {
             // evaluate if the left and right expressions equal eachother
@@ -358,8 +761,12 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         }
         else if (ast.getOperator().equals("+")) {
             // check if either side is a string
-            if (left.getValue() instanceof String || right.getValue() instanceof String) {
-                // perform string concatenation
+            if (left.isString() && right.isString()) {
+                // perform string concatenation, copying only once the result is read
+                return Environment.concat(left, right);
+            }
+            else if (left.isString() || right.isString()) {
+                // both sides must be strings
                 return Environment.create(requireType(String.class, left) + requireType(String.class, right));
             }
             // check if left is BigInt, right must be too
@@ -466,30 +873,90 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Expression.Function ast) {
         // first get the arguments - evaluate them
-        List<Environment.PlcObject> arguments = new ArrayList<>();
-        for (Ast.Expression argument : ast.getArguments()) {
-            arguments.add(visit(argument));
-        }
+        // a method call reserves the first slot for its receiver, which is
+        // still evaluated after the arguments
+        List<Environment.PlcObject> arguments = evaluate(ast.getArguments(), ast.getReceiver().isPresent() ? 1 : 0);
 
         // check if the expression has a receiver
         if (ast.getReceiver().isPresent()) {
             // there is a receiver like class.function(argument)
             // evaluate it
             Environment.PlcObject receiver = visit(ast.getReceiver().get());
-            // return result of calling the method
+            arguments.set(0, receiver);
+            // resolve the method through the call site's cache
+            Environment.Function method;
             try {
-                return receiver.callMethod(ast.getName(), arguments);
+                method = ast.getCallCache().lookup(receiver.getScope());
             } catch (RuntimeException e) {
-                throw new RuntimeException("Method " + ast.getName() + "/" + arguments.size() + " not found in receiver", e);
+                throw new RuntimeException("Method " + ast.getName() + "/" + (arguments.size() - 1) + " not found in receiver", e);
             }
+            // return result of calling the method
+            return method.invoke(arguments);
         }
         else {
-            //return value of invoking function with arguments
-            Environment.Function function = scope.lookupFunction(ast.getName(), arguments.size());
-            return function.invoke(arguments);
+            //return value of invoking function with arguments, calling our own methods directly
+            Environment.Function function = ast.getCallCache().lookup(scope);
+            Closure closure = closures.get(function);
+            return closure == null ? invoke(function, arguments) : call(closure, arguments);
         }
     }
 
+    /**
+     * Evaluates call arguments in order, after the given number of reserved
+     * leading slots.
+     */
+    private List<Environment.PlcObject> evaluate(List<Ast.Expression> expressions, int offset) {
+        List<Environment.PlcObject> arguments = new ArrayList<>(expressions.size() + offset);
+        for (int i = 0; i < offset; i++) {
+            arguments.add(null);
+        }
+        for (Ast.Expression argument : expressions) {
+            arguments.add(visit(argument));
+        }
+        return arguments;
+    }
+
+    /**
+     * Throws an ExecutionLimitException if a limit has been exceeded or the
+     * program was cancelled. Only the fuel and cancellation are checked every
+     * time, since they are just fields.
+     */
+    private void check() {
+        if (fuel < 0) {
+            throw new ExecutionLimitException(ExecutionLimitException.Limit.FUEL, "Out of fuel.");
+        }
+        if (cancelled) {
+            throw new ExecutionLimitException(ExecutionLimitException.Limit.CANCELLED, "Execution was cancelled.");
+        }
+        if (!limited) {
+            return;
+        }
+        //allocation is measured from the first check, on the thread running the program
+        if (allocationLimit >= 0 && allocationBase < 0) {
+            allocationBase = allocated();
+        }
+        if (++checks % CHECK_INTERVAL == 0) {
+            if (hasDeadline && System.nanoTime() - deadline > 0) {
+                throw new ExecutionLimitException(ExecutionLimitException.Limit.DEADLINE, "Deadline exceeded.");
+            }
+            if (allocationLimit >= 0 && allocated() - allocationBase > allocationLimit) {
+                throw new ExecutionLimitException(ExecutionLimitException.Limit.ALLOCATION, "Allocation limit exceeded.");
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far, or -1 if the
+     * JVM does not measure it.
+     */
+    private static long allocated() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
@@ -502,14 +969,102 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
 
     /**
-     * Exception class for returning values.
+     * A method together with the scope it was defined in.
+     */
+    private static final class Closure {
+
+        private final Ast.Method method;
+        private final Scope scope;
+        private final Memo memo;
+
+        private Closure(Ast.Method method, Scope scope, Memo memo) {
+            this.method = method;
+            this.scope = scope;
+            this.memo = memo;
+        }
+
+    }
+
+    /**
+     * A bounded LRU table of results for a pure method, keyed on argument
+     * values. Calls with arguments other than plain literal values, such as
+     * objects with fields, bypass the table.
+     */
+    public static final class Memo {
+
+        private final Map<List<Object>, Environment.PlcObject> table;
+        private long hits = 0;
+        private long misses = 0;
+
+        private Memo(int capacity) {
+            this.table = new LinkedHashMap<>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Environment.PlcObject> eldest) {
+                    return size() > capacity;
+                }
+
+            };
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public int size() {
+            return table.size();
+        }
+
+        private Environment.PlcObject invoke(List<Environment.PlcObject> arguments, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> method) {
+            List<Object> key = new ArrayList<>(arguments.size());
+            for (Environment.PlcObject argument : arguments) {
+                Object value = argument.getValue();
+                if (argument != Environment.NIL && !(value instanceof BigInteger || value instanceof BigDecimal
+                        || value instanceof String || value instanceof Character || value instanceof Boolean)) {
+                    return method.apply(arguments);
+                }
+                key.add(value);
+            }
+            Environment.PlcObject result = table.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+            //not computeIfAbsent, since recursive calls update the table meanwhile
+            result = method.apply(arguments);
+            table.put(key, result);
+            return result;
+        }
+
+    }
+
+    /**
+     * Exception class for returning values, or a pending tail call. It is
+     * only used for control flow, so no stack trace is captured.
      */
     private static class Return extends RuntimeException {
 
         private final Environment.PlcObject value;
+        private final Closure callee;
+        private final List<Environment.PlcObject> arguments;
 
         private Return(Environment.PlcObject value) {
+            super(null, null, false, false);
             this.value = value;
+            this.callee = null;
+            this.arguments = null;
+        }
+
+        private Return(Closure callee, List<Environment.PlcObject> arguments) {
+            super(null, null, false, false);
+            this.value = null;
+            this.callee = callee;
+            this.arguments = arguments;
         }
 
     }
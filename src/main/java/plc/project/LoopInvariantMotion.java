@@ -0,0 +1,149 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Hoists loop-invariant expressions out of WHILE and FOR loops, after the
+ * Analyzer.
+ *
+ * An expression is invariant if it contains no calls and no object fields,
+ * cannot fail (see {@link Rewriter#cannotFail}), since it is evaluated even
+ * when the loop never runs or a short-circuited {@code ||} would skip it, and
+ * every variable it reads is neither assigned nor declared in the loop. Fields also
+ * count as changed if the loop makes any calls. The largest such expressions
+ * in the condition, body and increment are evaluated once into temporaries
+ * named {@code $licm0}, {@code $licm1}, ... declared before the loop, which
+ * cannot clash with PLC identifiers.
+ *
+ * Inner loops are handled first, so an expression invariant in several
+ * nested loops is hoisted out of all of them.
+ */
+public final class LoopInvariantMotion extends Rewriter {
+
+    private final Set<Environment.Variable> fields = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Set<Environment.Variable> initialized = Collections.emptySet();
+    private int temporaries = 0;
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        initialized = initialized(ast);
+        for (Ast.Field field : ast.getFields()) {
+            Environment.Variable variable = annotation(field::getVariable);
+            if (variable != null) {
+                fields.add(variable);
+            }
+        }
+        return super.visit(ast);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.While ast) {
+        Ast.Statement.While loop = (Ast.Statement.While) super.visit(ast);
+        Hoister hoister = new Hoister(null, loop.getCondition(), loop.getStatements(), null);
+        Ast.Statement.While result = new Ast.Statement.While(hoister.expression(loop.getCondition()), hoister.block(loop.getStatements()));
+        hoister.hoisted.forEach(this::insert);
+        return result;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.For ast) {
+        Ast.Statement.For loop = (Ast.Statement.For) super.visit(ast);
+        Hoister hoister = new Hoister(loop.getInitialization(), loop.getCondition(), loop.getStatements(), loop.getIncrement());
+        Ast.Statement.For result = new Ast.Statement.For(
+                loop.getInitialization(),
+                hoister.expression(loop.getCondition()),
+                loop.getIncrement() == null ? null : (Ast.Statement) hoister.visit(loop.getIncrement()),
+                hoister.block(loop.getStatements())
+        );
+        hoister.hoisted.forEach(this::insert);
+        return result;
+    }
+
+    /**
+     * Replaces the invariant expressions of one loop with temporaries.
+     */
+    private final class Hoister extends Rewriter {
+
+        private final Set<String> changed = new HashSet<>();
+        private boolean calls = false;
+        private final List<Ast.Statement> hoisted = new ArrayList<>();
+
+        private Hoister(Ast.Statement initialization, Ast.Expression condition, List<Ast.Statement> statements, Ast.Statement increment) {
+            Rewriter collector = new Rewriter() {
+
+                @Override
+                public Ast visit(Ast.Statement.Declaration ast) {
+                    changed.add(ast.getName());
+                    return super.visit(ast);
+                }
+
+                @Override
+                public Ast visit(Ast.Statement.Assignment ast) {
+                    if (ast.getReceiver() instanceof Ast.Expression.Access && !((Ast.Expression.Access) ast.getReceiver()).getReceiver().isPresent()) {
+                        changed.add(((Ast.Expression.Access) ast.getReceiver()).getName());
+                    }
+                    return super.visit(ast);
+                }
+
+                @Override
+                public Ast visit(Ast.Expression.Function ast) {
+                    calls = true;
+                    return super.visit(ast);
+                }
+
+            };
+            //temporaries are evaluated before the initialization runs
+            if (initialization != null) {
+                collector.visit(initialization);
+            }
+            collector.visit(condition);
+            collector.block(statements);
+            if (increment != null) {
+                collector.visit(increment);
+            }
+        }
+
+        @Override
+        protected Ast.Expression expression(Ast.Expression ast) {
+            Environment.Type type = annotation(ast::getType);
+            if ((ast instanceof Ast.Expression.Binary || ast instanceof Ast.Expression.Group) && type != null && isInvariant(ast) && cannotFail(ast, initialized)) {
+                String name = "$licm" + temporaries++;
+                Environment.Variable variable = new Environment.Variable(name, name, type, false, Environment.NIL);
+                Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(name, Optional.of(type.getName()), Optional.of(ast));
+                declaration.setVariable(variable);
+                hoisted.add(declaration);
+                Ast.Expression.Access access = new Ast.Expression.Access(Optional.empty(), name);
+                access.setVariable(variable);
+                return access;
+            }
+            return super.expression(ast);
+        }
+
+        private boolean isInvariant(Ast.Expression ast) {
+            if (ast instanceof Ast.Expression.Literal) {
+                return true;
+            } else if (ast instanceof Ast.Expression.Group) {
+                return isInvariant(((Ast.Expression.Group) ast).getExpression());
+            } else if (ast instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+                return isInvariant(binary.getLeft()) && isInvariant(binary.getRight());
+            } else if (ast instanceof Ast.Expression.Access) {
+                Ast.Expression.Access access = (Ast.Expression.Access) ast;
+                Environment.Variable variable = annotation(access::getVariable);
+                return !access.getReceiver().isPresent()
+                        && variable != null
+                        && !changed.contains(access.getName())
+                        && !(calls && fields.contains(variable));
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The proof that the iterations of a FOR loop are independent, so they can be
+ * run in any order and on any thread by {@link Interpreter#enableParallelLoops}.
+ *
+ * The loop must count an integer variable up by a positive literal step
+ * while it is below (or at most) a bound that does not change in the loop.
+ * Its body may only assign variables declared in the body, and otherwise only
+ * reduce a variable declared outside the loop with {@code s = s + e} or
+ * {@code s = s * e}, where the reduced variable is not read anywhere else in
+ * the loop. Calls must be to pure methods, and the body may not RETURN.
+ */
+final class ParallelLoop {
+
+    private final String variable;
+    private final Ast.Expression bound;
+    private final boolean inclusive;
+    private final BigInteger step;
+    private final Map<Ast.Statement.Assignment, Reduction> reductions;
+    private final Map<String, String> operators;
+
+    private ParallelLoop(String variable, Ast.Expression bound, boolean inclusive, BigInteger step, Map<Ast.Statement.Assignment, Reduction> reductions, Map<String, String> operators) {
+        this.variable = variable;
+        this.bound = bound;
+        this.inclusive = inclusive;
+        this.step = step;
+        this.reductions = reductions;
+        this.operators = operators;
+    }
+
+    /**
+     * Returns the proof for a loop, or null if its iterations may depend on
+     * each other. Calls are allowed if pure returns true for them.
+     */
+    static ParallelLoop analyze(Ast.Statement.For ast, Predicate<Ast.Expression.Function> pure) {
+        String variable = initialized(ast.getInitialization());
+        if (variable == null || !(ast.getCondition() instanceof Ast.Expression.Binary)) {
+            return null;
+        }
+        Ast.Expression.Binary condition = (Ast.Expression.Binary) ast.getCondition();
+        boolean inclusive = condition.getOperator().equals("<=");
+        if (!inclusive && !condition.getOperator().equals("<") || !isVariable(condition.getLeft(), variable)) {
+            return null;
+        }
+        BigInteger step = step(ast.getIncrement(), variable);
+        if (step == null) {
+            return null;
+        }
+        Checker checker = new Checker(variable, pure);
+        //the bound is evaluated once, so it may only read what the loop does not change
+        if (!checker.expression(condition.getRight()) || checker.reads.contains(variable) || !checker.block(ast.getStatements())) {
+            return null;
+        }
+        for (Reduction reduction : checker.reductions.values()) {
+            if (checker.reads.contains(reduction.name)) {
+                return null;
+            }
+        }
+        return new ParallelLoop(variable, condition.getRight(), inclusive, step, Collections.unmodifiableMap(checker.reductions), Collections.unmodifiableMap(checker.operators));
+    }
+
+    String getVariable() {
+        return variable;
+    }
+
+    Ast.Expression getBound() {
+        return bound;
+    }
+
+    boolean isInclusive() {
+        return inclusive;
+    }
+
+    BigInteger getStep() {
+        return step;
+    }
+
+    Map<Ast.Statement.Assignment, Reduction> getReductions() {
+        return reductions;
+    }
+
+    /**
+     * Returns the operator of each reduced variable.
+     */
+    Map<String, String> getOperators() {
+        return operators;
+    }
+
+    private static String initialized(Ast.Statement ast) {
+        if (ast instanceof Ast.Statement.Declaration && ((Ast.Statement.Declaration) ast).getValue().isPresent()) {
+            return ((Ast.Statement.Declaration) ast).getName();
+        } else if (ast instanceof Ast.Statement.Assignment && isVariable(((Ast.Statement.Assignment) ast).getReceiver(), null)) {
+            return ((Ast.Expression.Access) ((Ast.Statement.Assignment) ast).getReceiver()).getName();
+        }
+        return null;
+    }
+
+    private static BigInteger step(Ast.Statement ast, String variable) {
+        if (!(ast instanceof Ast.Statement.Assignment) || !isVariable(((Ast.Statement.Assignment) ast).getReceiver(), variable)
+                || !(((Ast.Statement.Assignment) ast).getValue() instanceof Ast.Expression.Binary)) {
+            return null;
+        }
+        Ast.Expression.Binary value = (Ast.Expression.Binary) ((Ast.Statement.Assignment) ast).getValue();
+        if (!value.getOperator().equals("+") || !isVariable(value.getLeft(), variable) || !(value.getRight() instanceof Ast.Expression.Literal)) {
+            return null;
+        }
+        Object step = ((Ast.Expression.Literal) value.getRight()).getLiteral();
+        return step instanceof BigInteger && ((BigInteger) step).signum() > 0 ? (BigInteger) step : null;
+    }
+
+    /**
+     * Returns whether the expression is the given variable, or any variable
+     * if name is null.
+     */
+    private static boolean isVariable(Ast.Expression ast, String name) {
+        return ast instanceof Ast.Expression.Access && !((Ast.Expression.Access) ast).getReceiver().isPresent()
+                && (name == null || ((Ast.Expression.Access) ast).getName().equals(name));
+    }
+
+    /**
+     * A statement {@code name = name operator operand} combining a value from
+     * each iteration into a variable declared outside the loop.
+     */
+    static final class Reduction {
+
+        private final String name;
+        private final String operator;
+        private final Ast.Expression operand;
+
+        private Reduction(String name, String operator, Ast.Expression operand) {
+            this.name = name;
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getOperator() {
+            return operator;
+        }
+
+        Ast.Expression getOperand() {
+            return operand;
+        }
+
+    }
+
+    /**
+     * Checks the body, tracking the variables it declares in each scope.
+     */
+    private static final class Checker {
+
+        private final String variable;
+        private final Predicate<Ast.Expression.Function> pure;
+        private final Deque<Set<String>> locals = new ArrayDeque<>();
+        private final Map<Ast.Statement.Assignment, Reduction> reductions = new IdentityHashMap<>();
+        private final Map<String, String> operators = new HashMap<>();
+        private final Set<String> reads = new HashSet<>();
+
+        private Checker(String variable, Predicate<Ast.Expression.Function> pure) {
+            this.variable = variable;
+            this.pure = pure;
+        }
+
+        private boolean block(List<Ast.Statement> statements) {
+            locals.push(new HashSet<>());
+            try {
+                for (Ast.Statement statement : statements) {
+                    if (!statement(statement)) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                locals.pop();
+            }
+        }
+
+        private boolean statement(Ast.Statement ast) {
+            if (ast instanceof Ast.Statement.Expression) {
+                return expression(((Ast.Statement.Expression) ast).getExpression());
+            } else if (ast instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+                if (declaration.getValue().isPresent() && !expression(declaration.getValue().get())) {
+                    return false;
+                }
+                locals.peek().add(declaration.getName());
+                return true;
+            } else if (ast instanceof Ast.Statement.Assignment) {
+                return assignment((Ast.Statement.Assignment) ast);
+            } else if (ast instanceof Ast.Statement.If) {
+                Ast.Statement.If statement = (Ast.Statement.If) ast;
+                return expression(statement.getCondition()) && block(statement.getThenStatements()) && block(statement.getElseStatements());
+            } else if (ast instanceof Ast.Statement.For) {
+                Ast.Statement.For statement = (Ast.Statement.For) ast;
+                return (statement.getInitialization() == null || statement(statement.getInitialization()))
+                        && expression(statement.getCondition())
+                        && (statement.getIncrement() == null || statement(statement.getIncrement()))
+                        && block(statement.getStatements());
+            } else if (ast instanceof Ast.Statement.While) {
+                Ast.Statement.While statement = (Ast.Statement.While) ast;
+                return expression(statement.getCondition()) && block(statement.getStatements());
+            }
+            return false;
+        }
+
+        private boolean assignment(Ast.Statement.Assignment ast) {
+            if (!isVariable(ast.getReceiver(), null)) {
+                return false;
+            }
+            String name = ((Ast.Expression.Access) ast.getReceiver()).getName();
+            if (isLocal(name)) {
+                return expression(ast.getValue());
+            } else if (name.equals(variable) || !(ast.getValue() instanceof Ast.Expression.Binary)) {
+                return false;
+            }
+            Ast.Expression.Binary value = (Ast.Expression.Binary) ast.getValue();
+            boolean reduces = value.getOperator().equals("+") || value.getOperator().equals("*");
+            if (!reduces || !isVariable(value.getLeft(), name) || !expression(value.getRight())
+                    || !operators.computeIfAbsent(name, n -> value.getOperator()).equals(value.getOperator())) {
+                return false;
+            }
+            reductions.put(ast, new Reduction(name, value.getOperator(), value.getRight()));
+            return true;
+        }
+
+        private boolean expression(Ast.Expression ast) {
+            if (ast instanceof Ast.Expression.Literal) {
+                return true;
+            } else if (ast instanceof Ast.Expression.Group) {
+                return expression(((Ast.Expression.Group) ast).getExpression());
+            } else if (ast instanceof Ast.Expression.Binary) {
+                return expression(((Ast.Expression.Binary) ast).getLeft()) && expression(((Ast.Expression.Binary) ast).getRight());
+            } else if (ast instanceof Ast.Expression.Access) {
+                Ast.Expression.Access access = (Ast.Expression.Access) ast;
+                if (access.getReceiver().isPresent()) {
+                    return expression(access.getReceiver().get());
+                }
+                if (!isLocal(access.getName())) {
+                    reads.add(access.getName());
+                }
+                return true;
+            } else if (ast instanceof Ast.Expression.Function) {
+                Ast.Expression.Function function = (Ast.Expression.Function) ast;
+                if (function.getReceiver().isPresent() || !pure.test(function)) {
+                    return false;
+                }
+                for (Ast.Expression argument : function.getArguments()) {
+                    if (!expression(argument)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isLocal(String name) {
+            for (Set<String> scope : locals) {
+                if (scope.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
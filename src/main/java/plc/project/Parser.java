@@ -61,6 +61,7 @@ public final class Parser {
         if(!match("LET")){
             throw new ParseException("missing the word LET", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
 //        else {
 //            match(("LET")); // advance char stream
 //        }
@@ -103,7 +104,7 @@ public final class Parser {
         }
 
         //return the parsed field :)
-        return new Ast.Field(identifier, type, optionalConst, optExpression);
+        return at(index, new Ast.Field(identifier, type, optionalConst, optExpression));
     }
 
     /**
@@ -117,6 +118,7 @@ public final class Parser {
         if(!match("DEF")){
             throw new ParseException("missing the word DEF", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
 
         //make sure followed by an identifier
         if (!peek(Token.Type.IDENTIFIER)) {
@@ -209,7 +211,7 @@ public final class Parser {
         }
 
         //return the modified parsed method call
-        return new Ast.Method(identifier, methodParam, methodParamTypes, optionalType, statements);
+        return at(index, new Ast.Method(identifier, methodParam, methodParamTypes, optionalType, statements));
     }
 
     /**
@@ -245,7 +247,7 @@ public final class Parser {
                 if (!match(";")) {
                     throw new ParseException("Missing a ';'", tokens.get(0).getIndex());
                 }
-                return new Ast.Statement.Assignment(firstExp, secondExp);
+                return at(firstExp.getIndex(), new Ast.Statement.Assignment(firstExp, secondExp));
             }
             //else just one expression
             else {
@@ -255,7 +257,7 @@ public final class Parser {
                 if (!match(";")) {
                     throw new ParseException("Missing a ';'", tokens.get(0).getIndex());
                 }
-                return new Ast.Statement.Expression(firstExp);
+                return at(firstExp.getIndex(), new Ast.Statement.Expression(firstExp));
             }
         }
     }
@@ -270,6 +272,7 @@ public final class Parser {
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
         //inspired by parseField
         match("LET");
+        int index = tokens.get(-1).getIndex();
         //make sure followed by an identifier
         if (!peek(Token.Type.IDENTIFIER)) {
             throw new ParseException("Missing the identifier", tokens.get(-1).getIndex()+tokens.get(-1).getLiteral().length());
@@ -302,7 +305,7 @@ public final class Parser {
             throw new ParseException("Invalid ;", tokens.get(0).getIndex());
         }
 
-        return new Ast.Statement.Declaration(identifier, optionalType, optExpression);
+        return at(index, new Ast.Statement.Declaration(identifier, optionalType, optExpression));
     }
 
     /**
@@ -318,6 +321,7 @@ public final class Parser {
         if(!match("IF")) {
             throw new ParseException("missing the word IF", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
         // must be followed by an expression
         Ast.Expression condition = parseExpression(); //parse the following expression
 
@@ -349,7 +353,7 @@ public final class Parser {
             throw new ParseException("Missing keyword 'END'", tokens.get(0).getIndex());
         }
 
-        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+        return at(index, new Ast.Statement.If(condition, thenStatements, elseStatements));
     }
 
     /**
@@ -363,6 +367,7 @@ public final class Parser {
         if(!match("FOR")) {
             throw new ParseException("Missing the FOR keyword", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
         if(!match("(")) {
             throw new ParseException("Missing the ( ", tokens.get(0).getIndex());
         }
@@ -441,7 +446,7 @@ public final class Parser {
             throw new ParseException("Missing  END", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
         }
 
-        return new Ast.Statement.For(initializer, condition, increment, statements);
+        return at(index, new Ast.Statement.For(initializer, condition, increment, statements));
     }
 
     /**
@@ -457,6 +462,7 @@ public final class Parser {
         if(!match("WHILE")) {
             throw new ParseException("missing the word WHILE", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
         // must be followed by an expression
         Ast.Expression condition = parseExpression(); //parse the following expression
 
@@ -473,7 +479,7 @@ public final class Parser {
                 throw new ParseException("Missing keyword END", tokens.get(-1).getIndex()+tokens.get(-1).getLiteral().length());
             }
         }
-        return new Ast.Statement.While(condition, statements);
+        return at(index, new Ast.Statement.While(condition, statements));
 
     }
 
@@ -489,6 +495,7 @@ public final class Parser {
         if(!match("RETURN")) {
             throw new ParseException("missing the word RETURN", tokens.get(0).getIndex());
         }
+        int index = tokens.get(-1).getIndex();
         // must be followed by an expression
         Ast.Expression value = parseExpression(); //parse the following expression
 
@@ -497,7 +504,7 @@ public final class Parser {
             throw new ParseException("Missing the ;", tokens.get(0).getIndex());
         }
 
-        return new Ast.Statement.Return(value);
+        return at(index, new Ast.Statement.Return(value));
     }
 
 
@@ -527,7 +534,7 @@ public final class Parser {
             }
 
             Ast.Expression secondExp = parseEqualityExpression(); // Parse second expression, which is recursive call
-            firstExp = new Ast.Expression.Binary(op, firstExp, secondExp); //merge left and right hand exps into one binary exp
+            firstExp = at(firstExp.getIndex(), new Ast.Expression.Binary(op, firstExp, secondExp)); //merge left and right hand exps into one binary exp
         }
         return firstExp;
     }
@@ -547,7 +554,7 @@ public final class Parser {
                 throw new ParseException("Missing token", tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length());
             }
             Ast.Expression secondExp = parseAdditiveExpression();
-            firstExp = new Ast.Expression.Binary(op, firstExp, secondExp);
+            firstExp = at(firstExp.getIndex(), new Ast.Expression.Binary(op, firstExp, secondExp));
         }
         return firstExp;
     }
@@ -569,7 +576,7 @@ public final class Parser {
             }
 
             Ast.Expression secondExp = parseSecondaryExpression();
-            firstExp = new Ast.Expression.Binary(op, firstExp, secondExp);
+            firstExp = at(firstExp.getIndex(), new Ast.Expression.Binary(op, firstExp, secondExp));
             //System.out.println("Constructed binary expression: " + firstExp);
         }
         return firstExp;
@@ -593,7 +600,7 @@ public final class Parser {
             }
 
             Ast.Expression secondExp = parseSecondaryExpression();
-            firstExp = new Ast.Expression.Binary(op, firstExp, secondExp);
+            firstExp = at(firstExp.getIndex(), new Ast.Expression.Binary(op, firstExp, secondExp));
         }
         return firstExp;
     }
@@ -612,6 +619,7 @@ public final class Parser {
                 throw new ParseException("Not an identifier", tokens.get(-1).getIndex()+tokens.get(-1).getLiteral().length());
             }
             String identifier = tokens.get(0).getLiteral();
+            int index = tokens.get(0).getIndex();
             tokens.advance();
 
             //check if followed by '('
@@ -631,11 +639,11 @@ public final class Parser {
                     }
                 }
                 //declare as a function call like funct(arg1, arg2) or obj.funct(arg1...)
-                prim_Exp = new Ast.Expression.Function(Optional.of(prim_Exp), identifier, expressions);
+                prim_Exp = at(index, new Ast.Expression.Function(Optional.of(prim_Exp), identifier, expressions));
             }
             //if not a function call, then it's primary_expression.identifier, ie obj.field
             else {
-                prim_Exp = new Ast.Expression.Access(Optional.of(prim_Exp), identifier);
+                prim_Exp = at(index, new Ast.Expression.Access(Optional.of(prim_Exp), identifier));
             }
         }
         return prim_Exp;
@@ -657,6 +665,7 @@ public final class Parser {
         identifier ('(' (expression (',' expression)*)? ')')?
         */
         Ast.Expression exp; //????
+        int index = tokens.has(0) ? tokens.get(0).getIndex() : -1;
 
         //go through the cases for primary expressions!
         if(match("NIL"))
@@ -746,10 +755,18 @@ public final class Parser {
         else
             throw new ParseException("invalid primary expression :(", tokens.get(0).getIndex()); //tokens.index ?
 
-        return exp;
+        return at(index, exp);
     }
 
 
+    /**
+     * Records the index of the token a node starts at.
+     */
+    private static <T extends Ast> T at(int index, T ast) {
+        ast.setIndex(index);
+        return ast;
+    }
+
     //given in class
     public boolean peek(Object... patterns) {
         for(int i=0; i < patterns.length; i++){
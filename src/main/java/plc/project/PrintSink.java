@@ -0,0 +1,255 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where the {@code print/1} function of an {@link Interpreter} or
+ * {@link VirtualMachine} writes its lines, selected with setSink.
+ *
+ * {@link #STDOUT} prints each line with System.out.println, as print always
+ * did. {@link Buffered} writes to a Writer and flushes every few lines,
+ * {@link Async} hands lines to a background thread through a ring buffer so
+ * the program never waits on I/O while there is room, and {@link Collector}
+ * keeps the lines in memory for tests.
+ */
+public interface PrintSink extends AutoCloseable {
+
+    //System.out is looked up per line, so it can still be redirected
+    PrintSink STDOUT = line -> System.out.println(line);
+
+    /**
+     * Writes one line, without its line separator.
+     */
+    void print(String line);
+
+    /**
+     * Writes out any lines that are still buffered.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Flushes the sink and releases what it holds.
+     */
+    @Override
+    default void close() {
+        flush();
+    }
+
+    /**
+     * Writes lines to a Writer, flushing it after every flushLines lines, or
+     * only on flush and close if flushLines is 0.
+     */
+    final class Buffered implements PrintSink {
+
+        private final Writer writer;
+        private final int flushLines;
+        private int lines = 0;
+
+        public Buffered(Writer writer, int flushLines) {
+            if (flushLines < 0) {
+                throw new IllegalArgumentException("Flush interval must not be negative.");
+            }
+            this.writer = writer;
+            this.flushLines = flushLines;
+        }
+
+        @Override
+        public synchronized void print(String line) {
+            try {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+                if (flushLines > 0 && ++lines == flushLines) {
+                    lines = 0;
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Passes lines to another sink on a background thread. Lines wait in a
+     * ring buffer of the given capacity, and print only blocks while it is
+     * full. The target is flushed whenever the buffer runs empty. Closing
+     * waits for the buffered lines to be written, then closes the target.
+     */
+    final class Async implements PrintSink {
+
+        private final PrintSink target;
+        private final String[] ring;
+        private int head = 0;
+        private int size = 0;
+        private boolean closed = false;
+        //lines taken from the ring but not yet written to the target
+        private int writing = 0;
+        //what the target threw, after which lines are no longer accepted
+        private RuntimeException failure = null;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Thread drainer;
+
+        public Async(PrintSink target, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Capacity must be positive.");
+            }
+            this.target = target;
+            this.ring = new String[capacity];
+            drainer = new Thread(this::drain, "plc-print");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+
+        @Override
+        public void print(String line) {
+            lock.lock();
+            try {
+                while (size == ring.length && !closed) {
+                    notFull.awaitUninterruptibly();
+                }
+                if (closed) {
+                    throw new IllegalStateException("Sink is closed.", failure);
+                }
+                ring[(head + size) % ring.length] = line;
+                size++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits until every line printed so far has been written and the
+         * target flushed.
+         */
+        @Override
+        public void flush() {
+            lock.lock();
+            try {
+                while ((size > 0 || writing > 0) && failure == null) {
+                    notFull.awaitUninterruptibly();
+                }
+                if (failure != null) {
+                    throw new IllegalStateException("Sink failed.", failure);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signal();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                drainer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            target.close();
+        }
+
+        private void drain() {
+            List<String> batch = new ArrayList<>();
+            while (true) {
+                lock.lock();
+                try {
+                    while (size == 0 && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (size == 0) {
+                        return;
+                    }
+                    while (size > 0) {
+                        batch.add(ring[head]);
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                    }
+                    writing = batch.size();
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                RuntimeException failure = null;
+                try {
+                    for (String line : batch) {
+                        target.print(line);
+                    }
+                    target.flush();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                batch.clear();
+                lock.lock();
+                try {
+                    writing = 0;
+                    if (failure != null) {
+                        this.failure = failure;
+                        closed = true;
+                    }
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (failure != null) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Keeps every line in memory.
+     */
+    final class Collector implements PrintSink {
+
+        private final List<String> lines = new ArrayList<>();
+
+        @Override
+        public synchronized void print(String line) {
+            lines.add(line);
+        }
+
+        public synchronized List<String> getLines() {
+            return Collections.unmodifiableList(new ArrayList<>(lines));
+        }
+
+    }
+
+}
@@ -0,0 +1,242 @@
+package plc.project;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for PLC programs run by an {@link Interpreter}.
+ *
+ * Interpreters given to {@link Interpreter#enableProfiling(Profiler)} keep a
+ * PLC call stack of methods and the statement each one is executing, which
+ * costs a few array writes per call and statement. While started, a daemon
+ * thread samples those stacks at a fixed interval. Each sample counts one
+ * interval of time towards the sampled stack, the method at its top (self
+ * time) and every method in it (total time).
+ *
+ * Stacks are held weakly, so an interpreter that is no longer used does not
+ * keep its stack, or the methods on it, reachable through the profiler.
+ *
+ * Frames are written as {@code name/arity:index}, where index is the source
+ * index of the statement being executed from {@link Ast#getIndex()}, as
+ * reported by the {@link InstrumentedInterpreter}, and is left out for
+ * statements not created by the Parser. Stacks deeper than
+ * {@link #MAX_DEPTH} keep their innermost frames.
+ */
+public final class Profiler implements AutoCloseable {
+
+    public static final int MAX_DEPTH = 256;
+
+    private final long interval;
+    private final List<WeakReference<Stack>> stacks = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> samples = new HashMap<>();
+    private Thread sampler = null;
+
+    public Profiler(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Sampling interval must be positive.");
+        }
+        this.interval = interval.toNanos();
+    }
+
+    /**
+     * Starts sampling on a background thread.
+     */
+    public synchronized void start() {
+        if (sampler != null) {
+            throw new IllegalStateException("Profiler is already started.");
+        }
+        sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(interval);
+                sample();
+            }
+        }, "plc-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stops sampling, waiting for the background thread to finish.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = sampler;
+            sampler = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Returns the number of samples of each stack, keyed by collapsed stack
+     * with the outermost frame first.
+     */
+    public synchronized Map<String, Long> getSamples() {
+        return Collections.unmodifiableMap(new TreeMap<>(samples));
+    }
+
+    /**
+     * Returns the sampled time each method was at the top of the stack, keyed
+     * by name/arity.
+     */
+    public synchronized Map<String, Duration> getSelfTimes() {
+        Map<String, Duration> times = new TreeMap<>();
+        samples.forEach((stack, count) -> times.merge(method(stack.substring(stack.lastIndexOf(';') + 1)), time(count), Duration::plus));
+        return times;
+    }
+
+    /**
+     * Returns the sampled time each method was anywhere on the stack, keyed by
+     * name/arity. Recursive methods are counted once per sample.
+     */
+    public synchronized Map<String, Duration> getTotalTimes() {
+        Map<String, Duration> times = new TreeMap<>();
+        samples.forEach((stack, count) -> {
+            Set<String> methods = new HashSet<>();
+            for (String frame : stack.split(";")) {
+                if (!frame.equals("...")) {
+                    methods.add(method(frame));
+                }
+            }
+            methods.forEach(method -> times.merge(method, time(count), Duration::plus));
+        });
+        return times;
+    }
+
+    /**
+     * Writes the samples in collapsed stack format, one {@code stack count}
+     * line per stack, as read by flame graph tools.
+     */
+    public void writeCollapsed(Writer writer) throws IOException {
+        for (Map.Entry<String, Long> entry : getSamples().entrySet()) {
+            writer.write(entry.getKey() + " " + entry.getValue() + System.lineSeparator());
+        }
+        writer.flush();
+    }
+
+    Stack register() {
+        Stack stack = new Stack();
+        stacks.add(new WeakReference<>(stack));
+        return stack;
+    }
+
+    /**
+     * Records one sample of every stack that is executing a method.
+     */
+    synchronized void sample() {
+        for (WeakReference<Stack> reference : stacks) {
+            Stack stack = reference.get();
+            if (stack == null) {
+                stacks.remove(reference);
+                continue;
+            }
+            Ast.Method[] methods = stack.methods;
+            Ast.Statement[] statements = stack.statements;
+            //the stack may change while it is read, so only trust what is in range
+            int depth = Math.min(stack.depth, Math.min(methods.length, statements.length));
+            if (depth == 0) {
+                continue;
+            }
+            StringBuilder builder = new StringBuilder();
+            if (depth > MAX_DEPTH) {
+                builder.append("...");
+            }
+            for (int i = Math.max(0, depth - MAX_DEPTH); i < depth; i++) {
+                Ast.Method method = methods[i];
+                if (method == null) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(';');
+                }
+                builder.append(method.getName()).append('/').append(method.getParameters().size());
+                Ast.Statement statement = statements[i];
+                if (statement != null && statement.getIndex() >= 0) {
+                    builder.append(':').append(statement.getIndex());
+                }
+            }
+            samples.merge(builder.toString(), 1L, Long::sum);
+        }
+    }
+
+    private Duration time(long count) {
+        return Duration.ofNanos(interval * count);
+    }
+
+    private static String method(String frame) {
+        int position = frame.indexOf(':');
+        return position < 0 ? frame : frame.substring(0, position);
+    }
+
+    /**
+     * The PLC call stack of one interpreter. It is only written by the thread
+     * running the interpreter; the sampler reads it without locking and
+     * tolerates seeing it mid-update.
+     */
+    static final class Stack {
+
+        private volatile Ast.Method[] methods = new Ast.Method[16];
+        private volatile Ast.Statement[] statements = new Ast.Statement[16];
+        private volatile int depth = 0;
+
+        void push(Ast.Method method) {
+            int depth = this.depth;
+            if (depth == methods.length) {
+                Ast.Method[] methods = new Ast.Method[depth * 2];
+                Ast.Statement[] statements = new Ast.Statement[depth * 2];
+                System.arraycopy(this.methods, 0, methods, 0, depth);
+                System.arraycopy(this.statements, 0, statements, 0, depth);
+                this.methods = methods;
+                this.statements = statements;
+            }
+            methods[depth] = method;
+            statements[depth] = null;
+            this.depth = depth + 1;
+        }
+
+        /**
+         * Replaces the method at the top, for tail calls.
+         */
+        void replace(Ast.Method method) {
+            methods[depth - 1] = method;
+            statements[depth - 1] = null;
+        }
+
+        void pop() {
+            depth--;
+        }
+
+        void statement(Ast.Statement statement) {
+            //statements outside any method are not part of a frame
+            int depth = this.depth;
+            if (depth > 0) {
+                statements[depth - 1] = statement;
+            }
+        }
+
+    }
+
+}
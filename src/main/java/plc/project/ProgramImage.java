@@ -0,0 +1,123 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A loaded program that can be executed any number of times, concurrently,
+ * by separate {@link Interpreter}s created with
+ * {@link Interpreter#of(ProgramImage)}.
+ *
+ * The image holds what every execution shares and never changes after
+ * loading: the methods, resolved to functions once, and the constant fields
+ * whose initializers are free of calls and only read other such constants,
+ * which are evaluated once. The other fields are evaluated by each execution
+ * into its own globals, so executions never see each other's state. A
+ * constant read (or possibly read through a call) by an earlier unshared
+ * field is not shared either, so that the field fails just as it would with
+ * fields evaluated in declaration order.
+ * Memoization is not available for images, since its tables would be shared.
+ */
+public final class ProgramImage {
+
+    private final Scope scope;
+    private final List<Ast.Field> fields;
+    private final Map<Environment.Function, Ast.Method> methods;
+
+    public ProgramImage(Ast.Source source, Scope parent) {
+        Interpreter loader = new Interpreter(parent);
+        scope = loader.getScope();
+        List<Ast.Field> fields = new ArrayList<>();
+        Set<String> constants = new HashSet<>();
+        //names read by earlier unshared fields, which must not see later constants
+        Set<String> earlier = new HashSet<>();
+        boolean calls = false;
+        for (Ast.Field field : source.getFields()) {
+            boolean shareable = field.getConstant() && field.getValue().isPresent() && isConstant(field.getValue().get(), constants)
+                    && !calls && !earlier.contains(field.getName());
+            Environment.PlcObject value = shareable ? loader.visit(field.getValue().get()) : Environment.NIL;
+            //a NIL constant may still be assigned once, so it cannot be shared
+            if (value.getValue() == Environment.NIL.getValue()) {
+                fields.add(field);
+                if (field.getValue().isPresent()) {
+                    calls |= reads(field.getValue().get(), earlier);
+                }
+            } else {
+                scope.defineVariable(field.getName(), true, value);
+                constants.add(field.getName());
+            }
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        Map<Environment.Function, Ast.Method> methods = new IdentityHashMap<>();
+        for (Ast.Method method : source.getMethods()) {
+            Environment.Function function = scope.defineFunction(method.getName(), method.getParameters().size(), args -> {
+                throw new RuntimeException("Method " + method.getName() + "/" + method.getParameters().size() + " can only be called by an Interpreter executing the program.");
+            });
+            methods.put(function, method);
+        }
+        this.methods = Collections.unmodifiableMap(methods);
+        if (source.getMethods().stream().noneMatch(method -> method.getName().equals("main") && method.getParameters().isEmpty())) {
+            throw new RuntimeException("Runtime error in source main/0 function is not defined.");
+        }
+    }
+
+    /**
+     * Executes the program in a new Interpreter, returning the result of
+     * main/0.
+     */
+    public Environment.PlcObject execute() {
+        return Interpreter.of(this).execute();
+    }
+
+    Scope getScope() {
+        return scope;
+    }
+
+    List<Ast.Field> getFields() {
+        return fields;
+    }
+
+    Map<Environment.Function, Ast.Method> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Adds the variables the expression reads to names, returning whether it
+     * also makes calls, which could read any variable.
+     */
+    private static boolean reads(Ast.Expression ast, Set<String> names) {
+        if (ast instanceof Ast.Expression.Group) {
+            return reads(((Ast.Expression.Group) ast).getExpression(), names);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            boolean left = reads(((Ast.Expression.Binary) ast).getLeft(), names);
+            return reads(((Ast.Expression.Binary) ast).getRight(), names) || left;
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            if (access.getReceiver().isPresent()) {
+                return reads(access.getReceiver().get(), names);
+            }
+            names.add(access.getName());
+            return false;
+        }
+        return ast instanceof Ast.Expression.Function;
+    }
+
+    private static boolean isConstant(Ast.Expression ast, Set<String> constants) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return isConstant(((Ast.Expression.Group) ast).getExpression(), constants);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            return isConstant(((Ast.Expression.Binary) ast).getLeft(), constants) && isConstant(((Ast.Expression.Binary) ast).getRight(), constants);
+        } else if (ast instanceof Ast.Expression.Access) {
+            return !((Ast.Expression.Access) ast).getReceiver().isPresent() && constants.contains(((Ast.Expression.Access) ast).getName());
+        }
+        return false;
+    }
+
+}
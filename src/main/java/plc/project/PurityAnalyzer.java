@@ -0,0 +1,198 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Determines which methods of a source are pure, i.e. their result depends
+ * only on their arguments and calling them has no observable effect.
+ *
+ * A method is impure if it assigns anything other than its own locals, reads
+ * a field that is not constant, accesses or calls members of an object, or
+ * calls a function that is not itself a pure method of the source (including
+ * print). Methods start out pure and are marked impure until nothing changes,
+ * so recursive methods such as fibonacci are found to be pure.
+ */
+public final class PurityAnalyzer implements Ast.Visitor<Boolean> {
+
+    private final Map<String, Ast.Method> methods = new HashMap<>();
+    private final Set<String> constants = new HashSet<>();
+    private final Set<Ast.Method> impure = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Deque<Set<String>> locals = new ArrayDeque<>();
+
+    /**
+     * Returns the pure methods of the source, compared by identity.
+     */
+    public static Set<Ast.Method> analyze(Ast.Source ast) {
+        PurityAnalyzer analyzer = new PurityAnalyzer();
+        analyzer.visit(ast);
+        Set<Ast.Method> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Ast.Method method : ast.getMethods()) {
+            if (!analyzer.impure.contains(method)) {
+                pure.add(method);
+            }
+        }
+        return pure;
+    }
+
+    @Override
+    public Boolean visit(Ast.Source ast) {
+        for (Ast.Field field : ast.getFields()) {
+            //a constant holding NIL can still be assigned once
+            boolean initialized = field.getValue().isPresent() && !(field.getValue().get() instanceof Ast.Expression.Literal
+                    && ((Ast.Expression.Literal) field.getValue().get()).getLiteral() == null);
+            if (field.getConstant() && initialized) {
+                constants.add(field.getName());
+            }
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            methods.put(method.getName() + "/" + method.getParameters().size(), method);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Ast.Method method : ast.getMethods()) {
+                if (!impure.contains(method) && !visit(method)) {
+                    impure.add(method);
+                    changed = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Ast.Field ast) {
+        throw new AssertionError("Fields are handled by visit(Ast.Source).");
+    }
+
+    @Override
+    public Boolean visit(Ast.Method ast) {
+        locals.push(new HashSet<>(ast.getParameters()));
+        try {
+            return block(ast.getStatements());
+        } finally {
+            locals.pop();
+        }
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.Expression ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.Declaration ast) {
+        boolean pure = ast.getValue().map(this::visit).orElse(true);
+        locals.peek().add(ast.getName());
+        return pure;
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.Assignment ast) {
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
+            return false;
+        }
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        return !receiver.getReceiver().isPresent() && isLocal(receiver.getName()) && visit(ast.getValue());
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.If ast) {
+        return visit(ast.getCondition()) && block(ast.getThenStatements()) && block(ast.getElseStatements());
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.For ast) {
+        locals.push(new HashSet<>());
+        try {
+            return (ast.getInitialization() == null || visit(ast.getInitialization()))
+                    && visit(ast.getCondition())
+                    && (ast.getIncrement() == null || visit(ast.getIncrement()))
+                    && block(ast.getStatements());
+        } finally {
+            locals.pop();
+        }
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.While ast) {
+        return visit(ast.getCondition()) && block(ast.getStatements());
+    }
+
+    @Override
+    public Boolean visit(Ast.Statement.Return ast) {
+        return visit(ast.getValue());
+    }
+
+    @Override
+    public Boolean visit(Ast.Expression.Literal ast) {
+        return true;
+    }
+
+    @Override
+    public Boolean visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Boolean visit(Ast.Expression.Binary ast) {
+        return visit(ast.getLeft()) && visit(ast.getRight());
+    }
+
+    @Override
+    public Boolean visit(Ast.Expression.Access ast) {
+        if (ast.getReceiver().isPresent()) {
+            return false;
+        }
+        return isLocal(ast.getName()) || constants.contains(ast.getName());
+    }
+
+    @Override
+    public Boolean visit(Ast.Expression.Function ast) {
+        if (ast.getReceiver().isPresent()) {
+            return false;
+        }
+        Ast.Method method = methods.get(ast.getName() + "/" + ast.getArguments().size());
+        if (method == null || impure.contains(method)) {
+            return false;
+        }
+        for (Ast.Expression argument : ast.getArguments()) {
+            if (!visit(argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean block(List<Ast.Statement> statements) {
+        locals.push(new HashSet<>());
+        try {
+            for (Ast.Statement statement : statements) {
+                if (!visit(statement)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            locals.pop();
+        }
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : locals) {
+            if (scope.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
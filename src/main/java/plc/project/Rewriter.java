@@ -0,0 +1,370 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Base class for optimization passes that run after the {@link Analyzer}.
+ *
+ * By default every node is rebuilt from its rewritten children, carrying over
+ * its source position and the types, variables and functions set by the
+ * Analyzer so the result can be given to the {@link Generator} as well as the
+ * {@link Interpreter}. Subclasses override the visits for the nodes they
+ * transform.
+ *
+ * Statement visits may return {@code null} to remove the statement, and may
+ * call {@link #insert(Ast.Statement)} to place statements before it in the
+ * enclosing block.
+ */
+public abstract class Rewriter implements Ast.Visitor<Ast> {
+
+    private List<Ast.Statement> inserted = new ArrayList<>();
+
+    public Ast.Source rewrite(Ast.Source ast) {
+        return (Ast.Source) visit(ast);
+    }
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        List<Ast.Field> fields = new ArrayList<>();
+        for (Ast.Field field : ast.getFields()) {
+            Ast.Field result = (Ast.Field) visit(field);
+            if (result != null) {
+                fields.add(result);
+            }
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        for (Ast.Method method : ast.getMethods()) {
+            Ast.Method result = (Ast.Method) visit(method);
+            if (result != null) {
+                methods.add(result);
+            }
+        }
+        return at(ast, new Ast.Source(fields, methods));
+    }
+
+    @Override
+    public Ast visit(Ast.Field ast) {
+        Ast.Field result = new Ast.Field(ast.getName(), ast.getTypeName(), ast.getConstant(), ast.getValue().map(this::expression));
+        result.setVariable(annotation(ast::getVariable));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Method ast) {
+        Ast.Method result = new Ast.Method(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), block(ast.getStatements()));
+        result.setFunction(annotation(ast::getFunction));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Expression ast) {
+        return at(ast, new Ast.Statement.Expression(expression(ast.getExpression())));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Declaration ast) {
+        Ast.Statement.Declaration result = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), ast.getValue().map(this::expression));
+        result.setVariable(annotation(ast::getVariable));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Assignment ast) {
+        return at(ast, new Ast.Statement.Assignment(expression(ast.getReceiver()), expression(ast.getValue())));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.If ast) {
+        return at(ast, new Ast.Statement.If(expression(ast.getCondition()), block(ast.getThenStatements()), block(ast.getElseStatements())));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.For ast) {
+        return at(ast, new Ast.Statement.For(
+                ast.getInitialization() == null ? null : (Ast.Statement) visit(ast.getInitialization()),
+                expression(ast.getCondition()),
+                ast.getIncrement() == null ? null : (Ast.Statement) visit(ast.getIncrement()),
+                block(ast.getStatements())
+        ));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.While ast) {
+        return at(ast, new Ast.Statement.While(expression(ast.getCondition()), block(ast.getStatements())));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Return ast) {
+        return at(ast, new Ast.Statement.Return(expression(ast.getValue())));
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Literal ast) {
+        Ast.Expression.Literal result = new Ast.Expression.Literal(ast.getLiteral());
+        result.setType(annotation(ast::getType));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Group ast) {
+        Ast.Expression.Group result = new Ast.Expression.Group(expression(ast.getExpression()));
+        result.setType(annotation(ast::getType));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Binary ast) {
+        Ast.Expression.Binary result = new Ast.Expression.Binary(ast.getOperator(), expression(ast.getLeft()), expression(ast.getRight()));
+        result.setType(annotation(ast::getType));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Access ast) {
+        Ast.Expression.Access result = new Ast.Expression.Access(ast.getReceiver().map(this::expression), ast.getName());
+        result.setVariable(annotation(ast::getVariable));
+        return at(ast, result);
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = new ArrayList<>();
+        for (Ast.Expression argument : ast.getArguments()) {
+            arguments.add(expression(argument));
+        }
+        Ast.Expression.Function result = new Ast.Expression.Function(ast.getReceiver().map(this::expression), ast.getName(), arguments);
+        result.setFunction(annotation(ast::getFunction));
+        return at(ast, result);
+    }
+
+    protected Ast.Expression expression(Ast.Expression ast) {
+        return (Ast.Expression) visit(ast);
+    }
+
+    /**
+     * Rewrites a block, dropping removed statements and placing inserted
+     * ones before the statement that inserted them.
+     */
+    protected List<Ast.Statement> block(List<Ast.Statement> statements) {
+        List<Ast.Statement> outer = inserted;
+        List<Ast.Statement> result = new ArrayList<>();
+        try {
+            for (Ast.Statement statement : statements) {
+                inserted = new ArrayList<>();
+                Ast.Statement rewritten = (Ast.Statement) visit(statement);
+                result.addAll(inserted);
+                if (rewritten != null) {
+                    result.add(rewritten);
+                }
+            }
+        } finally {
+            inserted = outer;
+        }
+        return result;
+    }
+
+    /**
+     * Places a statement before the statement currently being rewritten.
+     */
+    protected void insert(Ast.Statement statement) {
+        inserted.add(statement);
+    }
+
+    /**
+     * Gives a rebuilt node the source position of the node it replaces.
+     */
+    protected static <T extends Ast> T at(Ast original, T ast) {
+        ast.setIndex(original.getIndex());
+        return ast;
+    }
+
+    /**
+     * Creates a literal typed as the Analyzer would type it.
+     */
+    protected static Ast.Expression.Literal literal(Object value) {
+        Ast.Expression.Literal literal = new Ast.Expression.Literal(value);
+        if (value instanceof Boolean) {
+            literal.setType(Environment.Type.BOOLEAN);
+        } else if (value instanceof BigInteger) {
+            literal.setType(Environment.Type.INTEGER);
+        } else if (value instanceof BigDecimal) {
+            literal.setType(Environment.Type.DECIMAL);
+        } else if (value instanceof Character) {
+            literal.setType(Environment.Type.CHARACTER);
+        } else if (value instanceof String) {
+            literal.setType(Environment.Type.STRING);
+        } else if (value == null) {
+            literal.setType(Environment.Type.NIL);
+        }
+        return literal;
+    }
+
+    /**
+     * Returns an annotation set by the Analyzer, or null if it was never set
+     * (e.g. for a tree that was not analyzed).
+     */
+    protected static <T> T annotation(Supplier<T> getter) {
+        try {
+            return getter.get();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether evaluating the expression can have no effect other than
+     * producing its value or failing, i.e. it contains no calls.
+     */
+    protected static boolean isPure(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return isPure(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Binary) {
+            return isPure(((Ast.Expression.Binary) ast).getLeft()) && isPure(((Ast.Expression.Binary) ast).getRight());
+        } else if (ast instanceof Ast.Expression.Access) {
+            Optional<Ast.Expression> receiver = ((Ast.Expression.Access) ast).getReceiver();
+            return !receiver.isPresent() || isPure(receiver.get());
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the variables that never hold NIL: fields and declarations
+     * initialized with a literal other than NIL whose name is never assigned
+     * anywhere in the source. Names are compared rather than variables since
+     * an assignment through a receiver is not resolved by the Analyzer.
+     */
+    protected static Set<Environment.Variable> initialized(Ast.Source ast) {
+        Map<Environment.Variable, String> candidates = new HashMap<>();
+        Set<String> assigned = new HashSet<>();
+        new Rewriter() {
+
+            @Override
+            public Ast visit(Ast.Field ast) {
+                candidate(ast.getValue(), annotation(ast::getVariable));
+                return super.visit(ast);
+            }
+
+            @Override
+            public Ast visit(Ast.Statement.Declaration ast) {
+                candidate(ast.getValue(), annotation(ast::getVariable));
+                return super.visit(ast);
+            }
+
+            @Override
+            public Ast visit(Ast.Statement.Assignment ast) {
+                if (ast.getReceiver() instanceof Ast.Expression.Access) {
+                    assigned.add(((Ast.Expression.Access) ast.getReceiver()).getName());
+                }
+                return super.visit(ast);
+            }
+
+            private void candidate(Optional<Ast.Expression> value, Environment.Variable variable) {
+                if (variable != null && value.isPresent() && value.get() instanceof Ast.Expression.Literal
+                        && ((Ast.Expression.Literal) value.get()).getLiteral() != null) {
+                    candidates.put(variable, variable.getName());
+                }
+            }
+
+        }.visit(ast);
+        Set<Environment.Variable> initialized = new HashSet<>();
+        candidates.forEach((variable, name) -> {
+            if (!assigned.contains(name)) {
+                initialized.add(variable);
+            }
+        });
+        return initialized;
+    }
+
+    /**
+     * Returns whether evaluating the expression is certain to succeed, so that
+     * it may be dropped or moved without losing an error. Arithmetic,
+     * comparisons and boolean operators fail on NIL, so their operands must be
+     * literals or {@link #initialized(Ast.Source)} variables of the types the
+     * operator accepts, and division must have a non-zero literal divisor.
+     */
+    protected static boolean cannotFail(Ast.Expression ast, Set<Environment.Variable> initialized) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return cannotFail(((Ast.Expression.Group) ast).getExpression(), initialized);
+        } else if (ast instanceof Ast.Expression.Access) {
+            //reading a resolved variable cannot fail, but a receiver may be NIL
+            return !((Ast.Expression.Access) ast).getReceiver().isPresent();
+        } else if (!(ast instanceof Ast.Expression.Binary)) {
+            return false;
+        }
+        Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+        Ast.Expression left = binary.getLeft();
+        Ast.Expression right = binary.getRight();
+        if (!cannotFail(left, initialized) || !cannotFail(right, initialized)) {
+            return false;
+        } else if (binary.getOperator().equals("==") || binary.getOperator().equals("!=")) {
+            return true;
+        } else if (!isNonNil(left, initialized) || !isNonNil(right, initialized)) {
+            return false;
+        }
+        Environment.Type type = annotation(left::getType);
+        if (type == null || !type.equals(annotation(right::getType))) {
+            return false;
+        }
+        switch (binary.getOperator()) {
+            case "&&":
+            case "||":
+                return type.equals(Environment.Type.BOOLEAN);
+            case "+":
+                return type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL) || type.equals(Environment.Type.STRING);
+            case "-":
+            case "*":
+                return type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL);
+            case "/":
+                return (type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL)) && isNonZero(right);
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                return type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL)
+                        || type.equals(Environment.Type.CHARACTER) || type.equals(Environment.Type.STRING);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether an expression that cannot fail also cannot produce NIL.
+     */
+    protected static boolean isNonNil(Ast.Expression ast, Set<Environment.Variable> initialized) {
+        if (ast instanceof Ast.Expression.Literal) {
+            return ((Ast.Expression.Literal) ast).getLiteral() != null;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return isNonNil(((Ast.Expression.Group) ast).getExpression(), initialized);
+        } else if (ast instanceof Ast.Expression.Access) {
+            return initialized.contains(annotation(((Ast.Expression.Access) ast)::getVariable));
+        }
+        return ast instanceof Ast.Expression.Binary;
+    }
+
+    private static boolean isNonZero(Ast.Expression ast) {
+        while (ast instanceof Ast.Expression.Group) {
+            ast = ((Ast.Expression.Group) ast).getExpression();
+        }
+        if (!(ast instanceof Ast.Expression.Literal)) {
+            return false;
+        }
+        Object literal = ((Ast.Expression.Literal) ast).getLiteral();
+        return literal instanceof BigInteger && ((BigInteger) literal).signum() != 0
+                || literal instanceof BigDecimal && ((BigDecimal) literal).signum() != 0;
+    }
+
+}
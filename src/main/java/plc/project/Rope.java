@@ -0,0 +1,92 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A string built by the Interpreter's {@code +} without copying its parts,
+ * so that a loop appending to a string takes linear rather than quadratic
+ * time.
+ *
+ * Ropes never escape a {@link Environment.PlcObject}: getValue flattens them
+ * into a String, which is kept for later reads, whenever the value is used
+ * for anything but another concatenation. A flattened rope drops its parts,
+ * so a loop that appends and reads does not keep every earlier string. Short
+ * results are concatenated eagerly, since a rope node is no cheaper than
+ * copying a few characters.
+ */
+final class Rope {
+
+    private static final int SHORT = 64;
+
+    //each part is a String or a Rope, and both are null once flat is set
+    private volatile Object left;
+    private volatile Object right;
+    private final int length;
+    private volatile String flat = null;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    /**
+     * Concatenates two parts, each a String or a Rope, returning a String if
+     * the result is short.
+     */
+    static Object concat(Object left, Object right) {
+        long length = (long) length(left) + length(right);
+        if (length > Integer.MAX_VALUE) {
+            throw new RuntimeException("String is too long.");
+        } else if (length <= SHORT) {
+            return left.toString() + right;
+        }
+        return new Rope(left, right, (int) length);
+    }
+
+    @Override
+    public String toString() {
+        String flat = this.flat;
+        if (flat == null) {
+            flat = flatten();
+            //flat is set first, so whoever sees a dropped part finds it
+            this.flat = flat;
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+
+    /**
+     * Appends the parts from left to right, with an explicit stack since a
+     * string built in a loop is a rope as deep as the loop ran.
+     */
+    private String flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Object> parts = new ArrayDeque<>();
+        parts.push(this);
+        while (!parts.isEmpty()) {
+            Object part = parts.pop();
+            if (part instanceof String) {
+                builder.append((String) part);
+            } else {
+                Rope rope = (Rope) part;
+                Object left = rope.left;
+                Object right = rope.right;
+                if (left == null || right == null) {
+                    builder.append(rope.flat);
+                } else {
+                    parts.push(right);
+                    parts.push(left);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static int length(Object part) {
+        return part instanceof Rope ? ((Rope) part).length : ((String) part).length();
+    }
+
+}
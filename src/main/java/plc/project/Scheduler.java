@@ -0,0 +1,90 @@
+package plc.project;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-slices {@link VirtualMachine.Continuation}s over a fixed number of
+ * worker threads.
+ *
+ * Each continuation runs for one slice of steps at a time and then goes to
+ * the back of the queue, so long-running programs cannot starve short ones
+ * and no thread is ever blocked waiting on a program. Continuations sharing
+ * a machine must not be submitted at the same time.
+ */
+public final class Scheduler implements AutoCloseable {
+
+    private final ExecutorService workers;
+    private final long slice;
+    private final AtomicLong slices = new AtomicLong();
+
+    public Scheduler(int workers, long slice) {
+        if (workers <= 0 || slice <= 0) {
+            throw new IllegalArgumentException("Workers and slice must be positive.");
+        }
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "plc-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.slice = slice;
+    }
+
+    /**
+     * Queues a continuation, returning its result once it has finished.
+     */
+    public CompletableFuture<Environment.PlcObject> submit(VirtualMachine.Continuation continuation) {
+        CompletableFuture<Environment.PlcObject> result = new CompletableFuture<>();
+        schedule(continuation, result);
+        return result;
+    }
+
+    /**
+     * Returns the number of slices run so far.
+     */
+    public long getSlices() {
+        return slices.get();
+    }
+
+    private void schedule(VirtualMachine.Continuation continuation, CompletableFuture<Environment.PlcObject> result) {
+        try {
+            workers.execute(() -> {
+                slices.incrementAndGet();
+                try {
+                    if (continuation.resume(slice)) {
+                        result.complete(continuation.getResult());
+                    } else {
+                        schedule(continuation, result);
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                    //the JVM cannot be trusted after running out of memory, but a script's deep recursion is harmless
+                    if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+                        throw (VirtualMachineError) e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stops running slices, failing the futures of unfinished continuations
+     * with a RejectedExecutionException.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
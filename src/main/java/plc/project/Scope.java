@@ -1,6 +1,7 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,8 +10,12 @@ import java.util.function.Function;
 public final class Scope {
 
     private final Scope parent;
-    public final Map<String, Environment.Variable> variables = new HashMap<>();
-    public final Map<String, Environment.Function> functions = new HashMap<>();
+    //bumped by every function definition in this scope, invalidating the call cache entries that could be shadowed
+    private int version = 0;
+    //both maps are created on first definition, most block scopes never need them
+    private Map<String, Environment.Variable> variables = null;
+    //overloads of a name are indexed by arity, so lookups never build a key
+    private Map<String, Environment.Function[]> functions = null;
 
     public Scope(Scope parent) {
         this.parent = parent;
@@ -25,59 +30,176 @@ public final class Scope {
     }
 
     public Environment.Variable defineVariable(String name, String jvmName, Environment.Type type, boolean constant, Environment.PlcObject value) {
+        if (variables == null) {
+            variables = new HashMap<>();
+        }
         if (variables.containsKey(name)) {
             throw new RuntimeException("The variable " + name + " is already defined in this scope.");
         } else {
             Environment.Variable variable = new Environment.Variable(name, jvmName, type, constant, value);
             variables.put(variable.getName(), variable);
-            return variables.get(name);
+            return variable;
         }
     }
 
     public Environment.Variable lookupVariable(String name) {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
-        } else if (parent != null) {
-            return parent.lookupVariable(name);
-        } else {
-            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Environment.Variable variable = scope.variables == null ? null : scope.variables.get(name);
+            if (variable != null) {
+                return variable;
+            }
         }
+        throw new RuntimeException("The variable " + name + " is not defined in this scope.");
     }
 
-    public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
+    public Environment.Function defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
         List<Environment.Type> parameterTypes = new ArrayList<>();
         for (int i = 0; i < arity; i++) {
             parameterTypes.add(Environment.Type.ANY);
         }
-        defineFunction(name, name, parameterTypes, Environment.Type.ANY, function);
+        return defineFunction(name, name, parameterTypes, Environment.Type.ANY, function);
     }
 
     public Environment.Function defineFunction(String name, String jvmName, List<Environment.Type> parameterTypes, Environment.Type returnType, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
-        if (functions.containsKey(name + "/" + parameterTypes.size())) {
-            throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
+        int arity = parameterTypes.size();
+        if (functions == null) {
+            functions = new HashMap<>();
+        }
+        Environment.Function[] overloads = functions.get(name);
+        if (overloads != null && arity < overloads.length && overloads[arity] != null) {
+            throw new RuntimeException("The function " + name + "/" + arity + " is already defined in this scope.");
         } else {
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
-            functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            if (overloads == null || arity >= overloads.length) {
+                overloads = overloads == null ? new Environment.Function[arity + 1] : Arrays.copyOf(overloads, arity + 1);
+                functions.put(name, overloads);
+            }
+            overloads[arity] = func;
+            version++;
             return func;
         }
     }
 
     public Environment.Function lookupFunction(String name, int arity) {
-        if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
-        } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
-        } else {
-            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            Environment.Function[] overloads = scope.functions == null ? null : scope.functions.get(name);
+            if (overloads != null && arity < overloads.length && overloads[arity] != null) {
+                return overloads[arity];
+            }
+        }
+        throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+    }
+
+    /**
+     * Returns the nearest scope, starting at this one, that defines any
+     * functions. Every scope below it resolves functions the same way.
+     */
+    private Scope getFunctionScope() {
+        Scope scope = this;
+        while (scope != null && scope.functions == null) {
+            scope = scope.parent;
+        }
+        return scope;
+    }
+
+    /**
+     * A polymorphic inline cache for the function resolved at one call site.
+     *
+     * Entries are keyed on the nearest scope defining any functions, so
+     * objects sharing a method scope share an entry. An entry is discarded
+     * once a function has been defined in a scope from that one up to, but
+     * not including, the scope the function was found in, since only those
+     * can shadow it. Definitions anywhere else leave the entry valid.
+     */
+    public static final class CallCache {
+
+        private static final int ENTRIES = 4;
+
+        private final String name;
+        private final int arity;
+        private final Entry[] entries = new Entry[ENTRIES];
+        private int next = 0;
+
+        public CallCache(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        public Environment.Function lookup(Scope scope) {
+            Scope owner = scope.getFunctionScope();
+            for (Entry entry : entries) {
+                if (entry == null) {
+                    break;
+                } else if (entry.scope == owner && entry.stamp == stamp(owner, entry.holder)) {
+                    return entry.function;
+                }
+            }
+            for (Scope holder = owner; holder != null; holder = holder.parent) {
+                Environment.Function[] overloads = holder.functions == null ? null : holder.functions.get(name);
+                if (overloads != null && arity < overloads.length && overloads[arity] != null) {
+                    //racing writers at worst lose an entry, which is just a later miss
+                    entries[next] = new Entry(owner, holder, stamp(owner, holder), overloads[arity]);
+                    next = (next + 1) % ENTRIES;
+                    return overloads[arity];
+                }
+            }
+            //not defined, so let lookupFunction report it
+            return scope.lookupFunction(name, arity);
+        }
+
+        /**
+         * Combines the versions of the scopes from owner up to, but not
+         * including, holder. Versions only grow, so the stamp changes whenever
+         * one of them defines a function. The function is usually found in
+         * the owner itself, which makes this free.
+         */
+        private static int stamp(Scope owner, Scope holder) {
+            int stamp = 0;
+            for (Scope scope = owner; scope != holder; scope = scope.parent) {
+                stamp += scope.version;
+            }
+            return stamp;
+        }
+
+        private static final class Entry {
+
+            private final Scope scope;
+            private final Scope holder;
+            private final int stamp;
+            private final Environment.Function function;
+
+            private Entry(Scope scope, Scope holder, int stamp, Environment.Function function) {
+                this.scope = scope;
+                this.holder = holder;
+                this.stamp = stamp;
+                this.function = function;
+            }
+
+        }
+
+    }
+
+    private List<String> getSignatures() {
+        List<String> signatures = new ArrayList<>();
+        if (functions == null) {
+            return signatures;
         }
+        functions.forEach((name, overloads) -> {
+            for (int arity = 0; arity < overloads.length; arity++) {
+                if (overloads[arity] != null) {
+                    signatures.add(name + "/" + arity);
+                }
+            }
+        });
+        return signatures;
     }
 
     @Override
     public String toString() {
         return "Scope{" +
                 "parent=" + parent +
-                ", variables=" + variables.keySet() +
-                ", functions=" + functions.keySet() +
+                ", variables=" + (variables == null ? List.of() : variables.keySet()) +
+                ", functions=" + getSignatures() +
                 '}';
     }
 
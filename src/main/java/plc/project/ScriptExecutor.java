@@ -0,0 +1,247 @@
+package plc.project;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs jobs, each executing a {@link ProgramImage} with its own inputs, for
+ * hosting PLC scripts behind a request loop.
+ *
+ * Each job runs in its own {@link Interpreter}, so only its globals and call
+ * frames are allocated per job while the program is shared. Jobs run on
+ * virtual threads when the JVM has them, and otherwise on a pool with one
+ * thread per processor. At most capacity jobs are queued or running at once;
+ * {@link #submit} waits for room and {@link #trySubmit} rejects the job.
+ * Closing waits a while for jobs to finish, then cancels the rest.
+ */
+public final class ScriptExecutor implements AutoCloseable {
+
+    private static final Duration GRACE = Duration.ofSeconds(10);
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final Semaphore capacity;
+    private final Histogram latencies = new Histogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Set<Interpreter> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    public ScriptExecutor(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = new Semaphore(capacity);
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            executor = null;
+        }
+        virtual = executor != null;
+        this.executor = virtual ? executor : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "plc-script");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns whether jobs run on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Submits a job without limits, waiting while the executor is full.
+     */
+    public CompletableFuture<Environment.PlcObject> submit(ProgramImage image, Map<String, Object> inputs) throws InterruptedException {
+        return submit(image, inputs, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Submits a job, waiting while the executor is full. The inputs are
+     * defined as constants in the job's globals. The job fails with an
+     * {@link ExecutionLimitException} if it runs out of fuel or runs for
+     * longer than the timeout, if not null.
+     */
+    public CompletableFuture<Environment.PlcObject> submit(ProgramImage image, Map<String, Object> inputs, long fuel, Duration timeout) throws InterruptedException {
+        capacity.acquire();
+        return run(image, inputs, fuel, timeout);
+    }
+
+    /**
+     * Submits a job like {@link #submit}, but throws a
+     * RejectedExecutionException instead of waiting if the executor is full.
+     */
+    public CompletableFuture<Environment.PlcObject> trySubmit(ProgramImage image, Map<String, Object> inputs, long fuel, Duration timeout) {
+        if (!capacity.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Script executor is full.");
+        }
+        return run(image, inputs, fuel, timeout);
+    }
+
+    private CompletableFuture<Environment.PlcObject> run(ProgramImage image, Map<String, Object> inputs, long fuel, Duration timeout) {
+        long submitted = System.nanoTime();
+        CompletableFuture<Environment.PlcObject> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                Interpreter interpreter = null;
+                try {
+                    interpreter = Interpreter.of(image);
+                    running.add(interpreter);
+                    //close checks running after setting cancelled, so one of us sees the other
+                    if (cancelled) {
+                        interpreter.cancel();
+                    }
+                    interpreter.setFuel(fuel);
+                    if (timeout != null) {
+                        interpreter.setDeadline(timeout);
+                    }
+                    for (Map.Entry<String, Object> input : inputs.entrySet()) {
+                        interpreter.getScope().defineVariable(input.getKey(), true, Environment.create(input.getValue()));
+                    }
+                    Environment.PlcObject value = interpreter.execute();
+                    completed.incrementAndGet();
+                    result.complete(value);
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    result.completeExceptionally(e);
+                    //the JVM cannot be trusted after running out of memory, but a script's deep recursion is harmless
+                    if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError)) {
+                        throw (VirtualMachineError) e;
+                    }
+                } finally {
+                    if (interpreter != null) {
+                        running.remove(interpreter);
+                    }
+                    latencies.record(System.nanoTime() - submitted);
+                    capacity.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            capacity.release();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the time from submission to completion of finished jobs.
+     */
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting jobs and waits up to ten seconds for the submitted ones
+     * to finish, as {@link #close(Duration)}.
+     */
+    @Override
+    public void close() {
+        close(GRACE);
+    }
+
+    /**
+     * Stops accepting jobs and waits up to the timeout for the submitted ones
+     * to finish. Jobs still queued or running after that are cancelled, and
+     * fail with an ExecutionLimitException at their next loop iteration or
+     * call, which this also waits for.
+     */
+    public void close(Duration timeout) {
+        executor.shutdown();
+        boolean interrupted = false;
+        try {
+            if (executor.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        cancelled = true;
+        running.forEach(Interpreter::cancel);
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A histogram of durations in power of two buckets of microseconds,
+     * which can be recorded to from any thread.
+     */
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+
+        private void record(long nanos) {
+            long micros = Math.max(nanos / 1000, 1);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(micros));
+            count.incrementAndGet();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns an upper bound of the duration the given fraction of
+         * recordings are at or below, within a factor of two.
+         */
+        public Duration getPercentile(double fraction) {
+            if (fraction < 0 || fraction > 1) {
+                throw new IllegalArgumentException("Fraction must be between 0 and 1.");
+            }
+            long target = (long) Math.ceil(fraction * count.get());
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return Duration.ofNanos(1000L << (i + 1));
+                }
+            }
+            return Duration.ZERO;
+        }
+
+        @Override
+        public String toString() {
+            return count.get() + " jobs, p50 < " + getPercentile(0.5).toNanos() / 1000 + "us, p99 < " + getPercentile(0.99).toNanos() / 1000 + "us";
+        }
+
+    }
+
+}
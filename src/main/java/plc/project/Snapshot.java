@@ -0,0 +1,296 @@
+package plc.project;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The values of a source's fields after {@link Interpreter#load(Ast.Source)},
+ * which {@link Interpreter#load(Ast.Source, Snapshot)} defines again without
+ * evaluating the field initializers, for starting a program without
+ * repeating its initialization.
+ *
+ * A snapshot records the names of the fields and the signatures of the
+ * methods it was taken from, and a SHA-256 digest of the field initializers,
+ * and can only be loaded with a source that declares the same ones. Values
+ * must be NIL, booleans, integers, decimals, characters or strings. They are
+ * written in a small binary format.
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x504C4353;
+    private static final int VERSION = 2;
+    private static final int DIGEST = 32;
+
+    private static final int NIL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int INTEGER = 2;
+    private static final int DECIMAL = 3;
+    private static final int CHARACTER = 4;
+    private static final int STRING = 5;
+
+    private final List<String> signatures;
+    private final byte[] initializers;
+    private final List<Global> globals;
+
+    private Snapshot(List<String> signatures, byte[] initializers, List<Global> globals) {
+        this.signatures = Collections.unmodifiableList(signatures);
+        this.initializers = initializers;
+        this.globals = Collections.unmodifiableList(globals);
+    }
+
+    /**
+     * Takes a snapshot of the values the interpreter's globals hold for the
+     * fields of the source.
+     */
+    public static Snapshot of(Interpreter interpreter, Ast.Source ast) {
+        List<Global> globals = new ArrayList<>();
+        for (Ast.Field field : ast.getFields()) {
+            Object value = interpreter.getScope().lookupVariable(field.getName()).getValue().getValue();
+            if (value == Environment.NIL.getValue()) {
+                value = null;
+            } else if (!(value instanceof Boolean || value instanceof BigInteger || value instanceof BigDecimal
+                    || value instanceof Character || value instanceof String)) {
+                throw new IllegalArgumentException("The value of field " + field.getName() + " cannot be saved in a snapshot.");
+            }
+            globals.add(new Global(field.getName(), field.getConstant(), value));
+        }
+        return new Snapshot(signatures(ast), initializers(ast), globals);
+    }
+
+    public static Snapshot read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot.");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ".");
+        }
+        int count = count(data);
+        List<String> signatures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            signatures.add(data.readUTF());
+        }
+        byte[] initializers = new byte[DIGEST];
+        data.readFully(initializers);
+        count = count(data);
+        List<Global> globals = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = data.readUTF();
+            boolean constant = data.readBoolean();
+            int type = data.readUnsignedByte();
+            Object value;
+            switch (type) {
+                case NIL:
+                    value = null;
+                    break;
+                case BOOLEAN:
+                    value = data.readBoolean();
+                    break;
+                case INTEGER:
+                    value = integer(data);
+                    break;
+                case DECIMAL:
+                    int scale = data.readInt();
+                    value = new BigDecimal(integer(data), scale);
+                    break;
+                case CHARACTER:
+                    value = data.readChar();
+                    break;
+                case STRING:
+                    value = new String(bytes(data), StandardCharsets.UTF_8);
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type + " in snapshot.");
+            }
+            globals.add(new Global(name, constant, value));
+        }
+        return new Snapshot(signatures, initializers, globals);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(signatures.size());
+        for (String signature : signatures) {
+            data.writeUTF(signature);
+        }
+        data.write(initializers);
+        data.writeInt(globals.size());
+        for (Global global : globals) {
+            data.writeUTF(global.name);
+            data.writeBoolean(global.constant);
+            Object value = global.value;
+            if (value == null) {
+                data.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                data.writeByte(BOOLEAN);
+                data.writeBoolean((Boolean) value);
+            } else if (value instanceof BigInteger) {
+                data.writeByte(INTEGER);
+                bytes(data, ((BigInteger) value).toByteArray());
+            } else if (value instanceof BigDecimal) {
+                data.writeByte(DECIMAL);
+                data.writeInt(((BigDecimal) value).scale());
+                bytes(data, ((BigDecimal) value).unscaledValue().toByteArray());
+            } else if (value instanceof Character) {
+                data.writeByte(CHARACTER);
+                data.writeChar((Character) value);
+            } else {
+                data.writeByte(STRING);
+                bytes(data, ((String) value).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Defines the fields of the source in the scope with their saved values.
+     */
+    void restore(Ast.Source ast, Scope scope) {
+        if (!signatures.equals(signatures(ast))) {
+            throw new IllegalArgumentException("Snapshot was taken from a source with different fields or methods.");
+        } else if (!MessageDigest.isEqual(initializers, initializers(ast))) {
+            throw new IllegalArgumentException("Snapshot was taken from a source with different field initializers.");
+        }
+        for (Global global : globals) {
+            scope.defineVariable(global.name, global.constant, global.value == null ? Environment.NIL : Environment.create(global.value));
+        }
+    }
+
+    /**
+     * Returns the fields, with whether they are constant, and the methods of
+     * a source, in order.
+     */
+    private static List<String> signatures(Ast.Source ast) {
+        List<String> signatures = new ArrayList<>();
+        for (Ast.Field field : ast.getFields()) {
+            signatures.add((field.getConstant() ? "CONST " : "") + field.getName());
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            signatures.add(method.getName() + "/" + method.getParameters().size());
+        }
+        return signatures;
+    }
+
+    /**
+     * Returns a digest of the field initializers of a source, printed without
+     * the Analyzer's annotations so it does not matter whether they are set.
+     */
+    private static byte[] initializers(Ast.Source ast) {
+        StringBuilder builder = new StringBuilder();
+        for (Ast.Field field : ast.getFields()) {
+            builder.append(field.getName()).append(':').append(field.getTypeName()).append('=');
+            field.getValue().ifPresent(value -> print(value, builder));
+            builder.append(';');
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(builder.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void print(Ast.Expression ast, StringBuilder builder) {
+        if (ast instanceof Ast.Expression.Literal) {
+            Object literal = ((Ast.Expression.Literal) ast).getLiteral();
+            String value = String.valueOf(literal);
+            //the class and length keep e.g. 1 and '1' or "a)" and "a" apart
+            builder.append(literal == null ? "nil" : literal.getClass().getSimpleName()).append(value.length()).append(':').append(value);
+        } else if (ast instanceof Ast.Expression.Group) {
+            builder.append('(');
+            print(((Ast.Expression.Group) ast).getExpression(), builder);
+            builder.append(')');
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            builder.append('[');
+            print(binary.getLeft(), builder);
+            builder.append(' ').append(binary.getOperator()).append(' ');
+            print(binary.getRight(), builder);
+            builder.append(']');
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            access.getReceiver().ifPresent(receiver -> receiver(receiver, builder));
+            builder.append(access.getName());
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            function.getReceiver().ifPresent(receiver -> receiver(receiver, builder));
+            builder.append(function.getName()).append('(');
+            for (Ast.Expression argument : function.getArguments()) {
+                print(argument, builder);
+                builder.append(',');
+            }
+            builder.append(')');
+        }
+    }
+
+    private static void receiver(Ast.Expression ast, StringBuilder builder) {
+        builder.append('{');
+        print(ast, builder);
+        builder.append("}.");
+    }
+
+    /**
+     * Reads a count or length, which a damaged snapshot could make negative.
+     */
+    private static int count(DataInputStream data) throws IOException {
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count " + count + " in snapshot.");
+        }
+        return count;
+    }
+
+    private static BigInteger integer(DataInputStream data) throws IOException {
+        byte[] bytes = bytes(data);
+        if (bytes.length == 0) {
+            throw new IOException("Empty integer in snapshot.");
+        }
+        return new BigInteger(bytes);
+    }
+
+    private static byte[] bytes(DataInputStream data) throws IOException {
+        int length = count(data);
+        //readNBytes grows its buffer as bytes arrive, so a bogus length cannot exhaust memory
+        byte[] bytes = data.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Snapshot ends within a value.");
+        }
+        return bytes;
+    }
+
+    private static void bytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static final class Global {
+
+        private final String name;
+        private final boolean constant;
+        //the value, or null for NIL
+        private final Object value;
+
+        private Global(String name, boolean constant, Object value) {
+            this.name = name;
+            this.constant = constant;
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Eliminates common subexpressions within straight-line statement sequences,
+ * after the Analyzer.
+ *
+ * A block is split into runs of statements without control flow. Within a
+ * run, a call-free, division-free Binary or field access that is evaluated
+ * more than once is computed once into a temporary named {@code $cse0},
+ * {@code $cse1}, ... declared before its first use. Only occurrences that are
+ * always evaluated count, so the right operand of {@code ||} is not looked
+ * into. An expression stops being available after a statement assigns or
+ * declares one of its variables, and expressions reading fields or object
+ * members also stop at any call or member assignment. The largest repeated
+ * expression is replaced first, and the pass repeats until nothing is
+ * repeated.
+ */
+public final class SubexpressionEliminator extends Rewriter {
+
+    private final Set<Environment.Variable> fields = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int temporaries = 0;
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        for (Ast.Field field : ast.getFields()) {
+            Environment.Variable variable = annotation(field::getVariable);
+            if (variable != null) {
+                fields.add(variable);
+            }
+        }
+        return super.visit(ast);
+    }
+
+    @Override
+    protected List<Ast.Statement> block(List<Ast.Statement> statements) {
+        List<Ast.Statement> block = super.block(statements);
+        List<Ast.Statement> result = new ArrayList<>();
+        List<Ast.Statement> run = new ArrayList<>();
+        for (Ast.Statement statement : block) {
+            if (statement instanceof Ast.Statement.If || statement instanceof Ast.Statement.For || statement instanceof Ast.Statement.While) {
+                result.addAll(eliminate(run));
+                result.add(statement);
+                run = new ArrayList<>();
+            } else {
+                run.add(statement);
+            }
+        }
+        result.addAll(eliminate(run));
+        return result;
+    }
+
+    private List<Ast.Statement> eliminate(List<Ast.Statement> run) {
+        while (true) {
+            Candidate candidate = find(run);
+            if (candidate == null) {
+                return run;
+            }
+            String name = "$cse" + temporaries++;
+            Environment.Type type = annotation(candidate.expression::getType);
+            Environment.Variable variable = new Environment.Variable(name, name, type, false, Environment.NIL);
+            Replacer replacer = new Replacer(candidate.key, variable);
+            for (int i = candidate.start; i < candidate.end; i++) {
+                run.set(i, (Ast.Statement) replacer.visit(run.get(i)));
+            }
+            Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(name, Optional.of(type.getName()), Optional.of(candidate.expression));
+            declaration.setVariable(variable);
+            run.add(candidate.start, declaration);
+        }
+    }
+
+    /**
+     * Returns the first, outermost expression that is evaluated again before
+     * it stops being available, or null if there is none.
+     */
+    private Candidate find(List<Ast.Statement> run) {
+        for (int start = 0; start < run.size(); start++) {
+            List<Ast.Expression> expressions = new ArrayList<>();
+            for (Ast.Expression expression : evaluated(run.get(start))) {
+                collect(expression, expressions);
+            }
+            for (Ast.Expression expression : expressions) {
+                String key = key(expression);
+                if (key == null || annotation(expression::getType) == null) {
+                    continue;
+                }
+                Set<String> names = new HashSet<>();
+                boolean global = reads(expression, names);
+                int end = start;
+                int count = 0;
+                while (end < run.size()) {
+                    Ast.Statement statement = run.get(end);
+                    if (global && calls(statement)) {
+                        break;
+                    }
+                    for (Ast.Expression evaluated : evaluated(statement)) {
+                        count += count(evaluated, key);
+                    }
+                    end++;
+                    if (kills(statement, names, global)) {
+                        break;
+                    }
+                }
+                if (count > 1) {
+                    return new Candidate(expression, key, start, end);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the expressions a statement evaluates, excluding the target of
+     * an assignment.
+     */
+    private static List<Ast.Expression> evaluated(Ast.Statement ast) {
+        if (ast instanceof Ast.Statement.Expression) {
+            return Collections.singletonList(((Ast.Statement.Expression) ast).getExpression());
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Optional<Ast.Expression> value = ((Ast.Statement.Declaration) ast).getValue();
+            return value.isPresent() ? Collections.singletonList(value.get()) : Collections.emptyList();
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            return Collections.singletonList(((Ast.Statement.Assignment) ast).getValue());
+        } else if (ast instanceof Ast.Statement.Return) {
+            return Collections.singletonList(((Ast.Statement.Return) ast).getValue());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Collects candidate expressions in pre-order, so enclosing expressions
+     * come before their operands. The right operand of {@code ||} is skipped,
+     * since it is not always evaluated and its temporary would be.
+     */
+    private static void collect(Ast.Expression ast, List<Ast.Expression> expressions) {
+        if (ast instanceof Ast.Expression.Group) {
+            collect(((Ast.Expression.Group) ast).getExpression(), expressions);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            expressions.add(ast);
+            collect(((Ast.Expression.Binary) ast).getLeft(), expressions);
+            if (!((Ast.Expression.Binary) ast).getOperator().equals("||")) {
+                collect(((Ast.Expression.Binary) ast).getRight(), expressions);
+            }
+        } else if (ast instanceof Ast.Expression.Access) {
+            Optional<Ast.Expression> receiver = ((Ast.Expression.Access) ast).getReceiver();
+            if (receiver.isPresent()) {
+                expressions.add(ast);
+                collect(receiver.get(), expressions);
+            }
+        } else if (ast instanceof Ast.Expression.Function) {
+            ((Ast.Expression.Function) ast).getReceiver().ifPresent(receiver -> collect(receiver, expressions));
+            ((Ast.Expression.Function) ast).getArguments().forEach(argument -> collect(argument, expressions));
+        }
+    }
+
+    private static int count(Ast.Expression ast, String key) {
+        if (ast instanceof Ast.Expression.Group) {
+            return count(((Ast.Expression.Group) ast).getExpression(), key);
+        } else if (key.equals(key(ast))) {
+            return 1;
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            //like collect, only occurrences that are always evaluated count
+            return count(binary.getLeft(), key) + (binary.getOperator().equals("||") ? 0 : count(binary.getRight(), key));
+        } else if (ast instanceof Ast.Expression.Access) {
+            Optional<Ast.Expression> receiver = ((Ast.Expression.Access) ast).getReceiver();
+            return receiver.isPresent() ? count(receiver.get(), key) : 0;
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            int count = function.getReceiver().isPresent() ? count(function.getReceiver().get(), key) : 0;
+            for (Ast.Expression argument : function.getArguments()) {
+                count += count(argument, key);
+            }
+            return count;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a key that is equal for expressions that always evaluate to the
+     * same value at the same point, or null if the expression contains a call
+     * or division.
+     */
+    private static String key(Ast.Expression ast) {
+        if (ast instanceof Ast.Expression.Literal) {
+            Object literal = ((Ast.Expression.Literal) ast).getLiteral();
+            String value = String.valueOf(literal);
+            return literal == null ? "nil" : literal.getClass().getSimpleName() + value.length() + ":" + value;
+        } else if (ast instanceof Ast.Expression.Group) {
+            return key(((Ast.Expression.Group) ast).getExpression());
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            String left = key(binary.getLeft());
+            String right = key(binary.getRight());
+            if (binary.getOperator().equals("/") || left == null || right == null) {
+                return null;
+            }
+            return "(" + left + " " + binary.getOperator() + " " + right + ")";
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            if (!access.getReceiver().isPresent()) {
+                return access.getName();
+            }
+            String receiver = key(access.getReceiver().get());
+            return receiver == null ? null : receiver + "." + access.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Adds the variables the expression reads to names, returning whether it
+     * also reads a field or object member, which calls could change.
+     */
+    private boolean reads(Ast.Expression ast, Set<String> names) {
+        if (ast instanceof Ast.Expression.Group) {
+            return reads(((Ast.Expression.Group) ast).getExpression(), names);
+        } else if (ast instanceof Ast.Expression.Binary) {
+            boolean left = reads(((Ast.Expression.Binary) ast).getLeft(), names);
+            return reads(((Ast.Expression.Binary) ast).getRight(), names) || left;
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            if (access.getReceiver().isPresent()) {
+                reads(access.getReceiver().get(), names);
+                return true;
+            }
+            names.add(access.getName());
+            Environment.Variable variable = annotation(access::getVariable);
+            return variable == null || fields.contains(variable);
+        }
+        return false;
+    }
+
+    private static boolean calls(Ast.Statement ast) {
+        for (Ast.Expression expression : evaluated(ast)) {
+            if (!isPure(expression)) {
+                return true;
+            }
+        }
+        return ast instanceof Ast.Statement.Assignment && !isPure(((Ast.Statement.Assignment) ast).getReceiver());
+    }
+
+    private static boolean kills(Ast.Statement ast, Set<String> names, boolean global) {
+        if (ast instanceof Ast.Statement.Declaration) {
+            return names.contains(((Ast.Statement.Declaration) ast).getName());
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            Ast.Expression target = ((Ast.Statement.Assignment) ast).getReceiver();
+            if (!(target instanceof Ast.Expression.Access)) {
+                return true;
+            }
+            Ast.Expression.Access receiver = (Ast.Expression.Access) target;
+            return receiver.getReceiver().isPresent() ? global : names.contains(receiver.getName());
+        }
+        return false;
+    }
+
+    private static final class Candidate {
+
+        private final Ast.Expression expression;
+        private final String key;
+        private final int start;
+        private final int end;
+
+        private Candidate(Ast.Expression expression, String key, int start, int end) {
+            this.expression = expression;
+            this.key = key;
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+    /**
+     * Replaces every evaluation of an expression with the temporary.
+     */
+    private static final class Replacer extends Rewriter {
+
+        private final String key;
+        private final Environment.Variable variable;
+
+        private Replacer(String key, Environment.Variable variable) {
+            this.key = key;
+            this.variable = variable;
+        }
+
+        @Override
+        public Ast visit(Ast.Statement.Assignment ast) {
+            return new Ast.Statement.Assignment(ast.getReceiver(), expression(ast.getValue()));
+        }
+
+        @Override
+        protected Ast.Expression expression(Ast.Expression ast) {
+            if (key.equals(key(ast))) {
+                Ast.Expression.Access access = new Ast.Expression.Access(Optional.empty(), variable.getName());
+                access.setVariable(variable);
+                return access;
+            }
+            return super.expression(ast);
+        }
+
+    }
+
+}
@@ -0,0 +1,1117 @@
+package plc.project;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A register-based virtual machine for PLC, sitting between the tree-walking
+ * {@link Interpreter} and the {@link BytecodeCompiler}.
+ *
+ * {@link #compile(Ast.Source)} translates each {@link Ast.Method} into a flat
+ * {@code int[]} of fixed-width instructions ({@code opcode, a, b, c}) over a
+ * register file, with literals stored once in a constant pool. The machine
+ * keeps raw {@link BigInteger}, {@link BigDecimal}, {@link String} etc. values
+ * in its registers and only wraps them in {@link Environment.PlcObject}s at the
+ * boundary to external functions, and calls between compiled methods push an
+ * explicit frame instead of recursing on the Java stack.
+ *
+ * Evaluation follows the Interpreter's semantics, except that names are
+ * resolved lexically at compile time: methods see their own locals and the
+ * source's fields, and calls to functions that are not defined in the source
+ * are linked against the {@link Scope} the machine is created with.
+ *
+ * Since the frames are explicit, an execution can also be started as a
+ * {@link Continuation} and run a bounded number of steps at a time, for
+ * sharing threads between many programs with a {@link Scheduler}.
+ */
+public final class VirtualMachine {
+
+    public static final int LOADK = 0;
+    public static final int LOADNIL = 1;
+    public static final int MOVE = 2;
+    public static final int GETG = 3;
+    public static final int SETG = 4;
+    public static final int GETF = 5;
+    public static final int SETF = 6;
+    public static final int ADD = 7;
+    public static final int SUB = 8;
+    public static final int MUL = 9;
+    public static final int DIV = 10;
+    public static final int LT = 11;
+    public static final int LE = 12;
+    public static final int GT = 13;
+    public static final int GE = 14;
+    public static final int EQ = 15;
+    public static final int NE = 16;
+    public static final int AND = 17;
+    public static final int CHECKB = 18;
+    public static final int JMP = 19;
+    public static final int JMPF = 20;
+    public static final int JMPT = 21;
+    public static final int CALL = 22;
+    public static final int CALLX = 23;
+    public static final int INVOKE = 24;
+    public static final int RET = 25;
+    public static final int RETNIL = 26;
+    public static final int ERROR = 27;
+
+    private static final Object NIL = Environment.NIL.getValue();
+
+    private final Program program;
+    private final Object[] globals;
+    private final Environment.Function[] externals;
+    private PrintSink sink = PrintSink.STDOUT;
+
+    /**
+     * Creates a machine for the program, linking external functions against
+     * the given scope. Like the Interpreter, {@code print/1} is always defined.
+     */
+    public VirtualMachine(Program program, Scope parent) {
+        this.program = program;
+        this.globals = new Object[program.globals.length];
+        Arrays.fill(globals, NIL);
+        Scope scope = new Scope(parent);
+        scope.defineFunction("print", 1, args -> {
+            sink.print(String.valueOf(args.get(0).getValue()));
+            return Environment.NIL;
+        });
+        this.externals = new Environment.Function[program.externals.length];
+        for (int i = 0; i < externals.length; i++) {
+            String name = program.externals[i];
+            int arity = program.externalArities[i];
+            try {
+                externals[i] = scope.lookupFunction(name, arity);
+            } catch (RuntimeException e) {
+                //left unlinked, the call fails when it is executed
+            }
+        }
+    }
+
+    /**
+     * Sets where print writes its lines, System.out by default.
+     */
+    public void setSink(PrintSink sink) {
+        this.sink = sink;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Initializes the fields and returns the result of calling main/0.
+     */
+    public Environment.PlcObject run() {
+        Continuation continuation = start();
+        continuation.resume(Long.MAX_VALUE);
+        return continuation.getResult();
+    }
+
+    /**
+     * Calls a compiled method by name, as the Interpreter's scope would.
+     */
+    public Environment.PlcObject call(String name, List<Environment.PlcObject> arguments) {
+        Continuation continuation = start(name, arguments);
+        continuation.resume(Long.MAX_VALUE);
+        return continuation.getResult();
+    }
+
+    /**
+     * Returns a suspended execution that initializes the fields and then
+     * calls main/0, which runs as it is resumed.
+     */
+    public Continuation start() {
+        if (program.main < 0) {
+            throw new RuntimeException("Runtime error in source main/0 function is not defined.");
+        }
+        return new Continuation(new int[] {program.initializer, program.main}, new Object[0]);
+    }
+
+    /**
+     * Returns a suspended call of a compiled method by name.
+     */
+    public Continuation start(String name, List<Environment.PlcObject> arguments) {
+        for (int i = 0; i < program.functions.length; i++) {
+            Function function = program.functions[i];
+            if (function.name.equals(name) && function.arity == arguments.size()) {
+                return new Continuation(new int[] {i}, arguments.toArray());
+            }
+        }
+        throw new RuntimeException("The function " + name + "/" + arguments.size() + " is not defined in this scope.");
+    }
+
+    /**
+     * An execution on this machine that runs in slices. Its frames and
+     * registers are its own, but it shares the machine's globals, so the
+     * continuations of one machine must not be resumed concurrently.
+     */
+    public final class Continuation {
+
+        //the functions to call in turn, the last one giving the result
+        private final int[] entries;
+        private int next = 1;
+        private Object[] registers = new Object[256];
+        private int[] frameFunctions = new int[16];
+        private int[] framePcs = new int[16];
+        private int[] frameBases = new int[16];
+        private int[] frameResults = new int[16];
+        private int depth = 0;
+        private int entry;
+        private int base = 0;
+        private int pc = 0;
+        private boolean done = false;
+        private Object result = null;
+        private Throwable failure = null;
+
+        private Continuation(int[] entries, Object[] arguments) {
+            this.entries = entries;
+            entry = entries[0];
+            ensure(Math.max(program.functions[entry].registers, arguments.length));
+            System.arraycopy(arguments, 0, registers, 0, arguments.length);
+        }
+
+        /**
+         * Runs for up to the given number of steps, returning whether the
+         * execution has finished. Steps are counted at calls and backward
+         * jumps, so every loop iteration and call takes one. Anything thrown
+         * while running ends the execution and is rethrown here, and again by
+         * every later call.
+         */
+        public boolean resume(long steps) {
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            if (!done) {
+                try {
+                    done = execute(this, steps);
+                } catch (RuntimeException | Error e) {
+                    //a stack overflow leaves the frames half written, so it ends the execution too
+                    failure = e;
+                    throw e;
+                }
+            }
+            return done;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Returns the result of the finished execution.
+         */
+        public Environment.PlcObject getResult() {
+            if (!done) {
+                throw new IllegalStateException("Execution has not finished.");
+            }
+            return wrap(result);
+        }
+
+        private void ensure(int size) {
+            if (size > registers.length) {
+                registers = Arrays.copyOf(registers, Math.max(size, registers.length * 2));
+            }
+        }
+
+    }
+
+    /**
+     * The dispatch loop. Frames of compiled methods live in parallel arrays
+     * and their registers are windows into one shared register file, so a
+     * call only moves the window base. The state is kept in locals and only
+     * written back to the continuation when it suspends, returning false.
+     */
+    private boolean execute(Continuation k, long steps) {
+        Function[] functions = program.functions;
+        Object[] constants = program.constants;
+        int[] frameFunctions = k.frameFunctions;
+        int[] framePcs = k.framePcs;
+        int[] frameBases = k.frameBases;
+        int[] frameResults = k.frameResults;
+        int depth = k.depth;
+
+        int entry = k.entry;
+        Function function = functions[entry];
+        int[] code = function.code;
+        int base = k.base;
+        int pc = k.pc;
+        Object[] r = k.registers;
+        long budget = steps;
+
+        while (true) {
+            int op = code[pc];
+            int a = code[pc + 1];
+            int b = code[pc + 2];
+            int c = code[pc + 3];
+            pc += 4;
+            switch (op) {
+                case LOADK:
+                    r[base + a] = constants[b];
+                    break;
+                case LOADNIL:
+                    r[base + a] = NIL;
+                    break;
+                case MOVE:
+                    r[base + a] = r[base + b];
+                    break;
+                case GETG:
+                    r[base + a] = globals[b];
+                    break;
+                case SETG:
+                    if (program.constantGlobals[a] && globals[a] != NIL) {
+                        throw new RuntimeException("error reassigning const var in Ast.Statement.Assignment");
+                    }
+                    globals[a] = r[base + b];
+                    break;
+                case GETF:
+                    r[base + a] = wrap(r[base + b]).getField((String) constants[c]).getValue();
+                    break;
+                case SETF: {
+                    Environment.Variable field = wrap(r[base + a]).getField((String) constants[b]);
+                    if (!field.getValue().equals(Environment.NIL) && field.getConstant()) {
+                        throw new RuntimeException("error reassigning const var in Ast.Statement.Assignment");
+                    }
+                    field.setValue(wrap(r[base + c]));
+                    break;
+                }
+                case ADD:
+                    r[base + a] = add(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case SUB:
+                    r[base + a] = subtract(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case MUL:
+                    r[base + a] = multiply(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case DIV:
+                    r[base + a] = divide(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case LT:
+                    r[base + a] = compare(plain(r[base + b]), plain(r[base + c])) < 0;
+                    break;
+                case LE:
+                    r[base + a] = compare(plain(r[base + b]), plain(r[base + c])) <= 0;
+                    break;
+                case GT:
+                    r[base + a] = compare(plain(r[base + b]), plain(r[base + c])) > 0;
+                    break;
+                case GE:
+                    r[base + a] = compare(plain(r[base + b]), plain(r[base + c])) >= 0;
+                    break;
+                case EQ:
+                    r[base + a] = Objects.equals(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case NE:
+                    r[base + a] = !Objects.equals(plain(r[base + b]), plain(r[base + c]));
+                    break;
+                case AND:
+                    r[base + a] = bool(r[base + b]) && bool(r[base + c]);
+                    break;
+                case CHECKB:
+                    bool(r[base + a]);
+                    break;
+                case JMP:
+                    //a backward jump is a loop iteration, where the execution may suspend
+                    if (a < pc && --budget < 0) {
+                        return suspend(k, frameFunctions, framePcs, frameBases, frameResults, depth, entry, base, a);
+                    }
+                    pc = a;
+                    break;
+                case JMPF:
+                    if (!condition(r[base + a])) {
+                        pc = b;
+                    }
+                    break;
+                case JMPT:
+                    if (bool(r[base + a])) {
+                        pc = b;
+                    }
+                    break;
+                case CALL: {
+                    if (depth == frameFunctions.length) {
+                        frameFunctions = Arrays.copyOf(frameFunctions, depth * 2);
+                        framePcs = Arrays.copyOf(framePcs, depth * 2);
+                        frameBases = Arrays.copyOf(frameBases, depth * 2);
+                        frameResults = Arrays.copyOf(frameResults, depth * 2);
+                    }
+                    frameFunctions[depth] = entry;
+                    framePcs[depth] = pc;
+                    frameBases[depth] = base;
+                    frameResults[depth] = a;
+                    depth++;
+                    //arguments are already in place at the start of the callee's window
+                    entry = b;
+                    function = functions[entry];
+                    code = function.code;
+                    base = base + c;
+                    pc = 0;
+                    k.ensure(base + function.registers);
+                    r = k.registers;
+                    if (--budget < 0) {
+                        return suspend(k, frameFunctions, framePcs, frameBases, frameResults, depth, entry, base, pc);
+                    }
+                    break;
+                }
+                case CALLX: {
+                    Environment.Function external = externals[b];
+                    if (external == null) {
+                        throw new RuntimeException("The function " + program.externals[b] + "/" + program.externalArities[b] + " is not defined in this scope.");
+                    }
+                    List<Environment.PlcObject> args = new ArrayList<>(program.externalArities[b]);
+                    for (int i = 0; i < program.externalArities[b]; i++) {
+                        args.add(wrap(r[base + c + i]));
+                    }
+                    r[base + a] = unwrap(external.invoke(args));
+                    break;
+                }
+                case INVOKE: {
+                    String name = (String) constants[b];
+                    //c packs the argument count above the receiver's register
+                    int arity = c >>> 16;
+                    int start = c & 0xFFFF;
+                    List<Environment.PlcObject> args = new ArrayList<>(arity);
+                    for (int i = 1; i <= arity; i++) {
+                        args.add(wrap(r[base + start + i]));
+                    }
+                    Environment.PlcObject receiver = wrap(r[base + start]);
+                    try {
+                        r[base + a] = unwrap(receiver.callMethod(name, args));
+                    } catch (RuntimeException e) {
+                        throw new RuntimeException("Method " + name + "/" + arity + " not found in receiver", e);
+                    }
+                    break;
+                }
+                case RET:
+                case RETNIL: {
+                    Object result = op == RET ? r[base + a] : NIL;
+                    if (depth == 0) {
+                        if (k.next == k.entries.length) {
+                            k.result = result;
+                            return true;
+                        }
+                        //start the next function of the execution, main/0 after the initializer
+                        entry = k.entries[k.next++];
+                        function = functions[entry];
+                        code = function.code;
+                        pc = 0;
+                        k.ensure(function.registers);
+                        r = k.registers;
+                        break;
+                    }
+                    depth--;
+                    entry = frameFunctions[depth];
+                    function = functions[entry];
+                    code = function.code;
+                    pc = framePcs[depth];
+                    base = frameBases[depth];
+                    r[base + frameResults[depth]] = result;
+                    break;
+                }
+                case ERROR:
+                    throw new RuntimeException((String) constants[a]);
+                default:
+                    throw new AssertionError("Unknown opcode " + op + ".");
+            }
+        }
+    }
+
+    private static boolean suspend(Continuation k, int[] frameFunctions, int[] framePcs, int[] frameBases, int[] frameResults, int depth, int entry, int base, int pc) {
+        k.frameFunctions = frameFunctions;
+        k.framePcs = framePcs;
+        k.frameBases = frameBases;
+        k.frameResults = frameResults;
+        k.depth = depth;
+        k.entry = entry;
+        k.base = base;
+        k.pc = pc;
+        return false;
+    }
+
+    private static Object add(Object left, Object right) {
+        if (left instanceof BigInteger && right instanceof BigInteger) {
+            return ((BigInteger) left).add((BigInteger) right);
+        } else if (left instanceof String || right instanceof String) {
+            return require(String.class, left) + require(String.class, right);
+        } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return ((BigDecimal) left).add((BigDecimal) right);
+        }
+        throw new RuntimeException("Trying to add incompatible types.");
+    }
+
+    private static Object subtract(Object left, Object right) {
+        if (left instanceof BigInteger && right instanceof BigInteger) {
+            return ((BigInteger) left).subtract((BigInteger) right);
+        } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return ((BigDecimal) left).subtract((BigDecimal) right);
+        }
+        throw new RuntimeException("Trying to subtract incompatible types.");
+    }
+
+    private static Object multiply(Object left, Object right) {
+        if (left instanceof BigInteger && right instanceof BigInteger) {
+            return ((BigInteger) left).multiply((BigInteger) right);
+        } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            return ((BigDecimal) left).multiply((BigDecimal) right);
+        }
+        throw new RuntimeException("Trying to multiply incompatible types.");
+    }
+
+    private static Object divide(Object left, Object right) {
+        if (left instanceof BigInteger && right instanceof BigInteger) {
+            if (((BigInteger) right).signum() == 0) {
+                throw new RuntimeException("Trying to divide by zero.");
+            }
+            return ((BigInteger) left).divide((BigInteger) right);
+        } else if (left instanceof BigDecimal && right instanceof BigDecimal) {
+            if (right.equals(BigDecimal.ZERO)) {
+                throw new RuntimeException("Trying to divide by zero.");
+            }
+            return ((BigDecimal) left).divide((BigDecimal) right, RoundingMode.HALF_EVEN);
+        }
+        throw new RuntimeException("Trying to divide incompatible types.");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object left, Object right) {
+        require(Comparable.class, left);
+        require(left.getClass(), right);
+        return ((Comparable) left).compareTo(right);
+    }
+
+    private static boolean bool(Object value) {
+        return require(Boolean.class, plain(value));
+    }
+
+    private static boolean condition(Object value) {
+        Object plain = plain(value);
+        if (!(plain instanceof Boolean)) {
+            throw new RuntimeException("The condition does NOT evaluate to a Boolean");
+        }
+        return (Boolean) plain;
+    }
+
+    private static <T> T require(Class<T> type, Object value) {
+        if (type.isInstance(value)) {
+            return type.cast(value);
+        }
+        throw new RuntimeException("Expected type " + type.getName() + ", received " + value.getClass().getName() + ".");
+    }
+
+    /**
+     * Registers hold raw values, except for objects returned by external
+     * functions which keep their {@link Environment.PlcObject} so their fields
+     * and methods remain reachable.
+     */
+    private static Object plain(Object value) {
+        return value instanceof Environment.PlcObject ? ((Environment.PlcObject) value).getValue() : value;
+    }
+
+    private static Environment.PlcObject wrap(Object value) {
+        if (value instanceof Environment.PlcObject) {
+            return (Environment.PlcObject) value;
+        }
+        return value == NIL ? Environment.NIL : Environment.create(value);
+    }
+
+    private static Object unwrap(Environment.PlcObject value) {
+        return value == Environment.NIL ? NIL : value;
+    }
+
+    /**
+     * Compiles the fields and methods of a source into a program.
+     */
+    public static Program compile(Ast.Source ast) {
+        Program.Builder builder = new Program.Builder();
+        for (Ast.Field field : ast.getFields()) {
+            builder.globalIndex.put(field.getName(), builder.globalNames.size());
+            builder.globalNames.add(field.getName());
+            builder.globalConstants.add(field.getConstant());
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            builder.functionIndex.put(method.getName() + "/" + method.getParameters().size(), builder.functions.size());
+            builder.functions.add(null);
+        }
+
+        //field initializers become a method of their own, run before main
+        Emitter initializer = new Emitter(builder, "<init>", 0);
+        for (Ast.Field field : ast.getFields()) {
+            initializer.visit(field);
+        }
+        builder.functions.add(initializer.finish());
+
+        for (int i = 0; i < ast.getMethods().size(); i++) {
+            Ast.Method method = ast.getMethods().get(i);
+            Emitter emitter = new Emitter(builder, method.getName(), method.getParameters().size());
+            emitter.visit(method);
+            builder.functions.set(i, emitter.finish());
+        }
+        Integer main = builder.functionIndex.get("main/0");
+        return builder.build(builder.functions.size() - 1, main == null ? -1 : main);
+    }
+
+    /**
+     * A compiled method: its name, arity, register count and code.
+     */
+    public static final class Function {
+
+        private final String name;
+        private final int arity;
+        private final int registers;
+        private final int[] code;
+
+        public Function(String name, int arity, int registers, int[] code) {
+            this.name = name;
+            this.arity = arity;
+            this.registers = registers;
+            this.code = code;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getArity() {
+            return arity;
+        }
+
+        public int getRegisters() {
+            return registers;
+        }
+
+        public int[] getCode() {
+            return code;
+        }
+
+    }
+
+    /**
+     * A compiled source: constant pool, globals, external function links and
+     * methods. Programs are immutable and can be written to and read from a
+     * compact binary form so compilation can be skipped entirely.
+     */
+    public static final class Program {
+
+        private static final int MAGIC = 0x504C4356;
+        private static final int VERSION = 1;
+
+        private final Object[] constants;
+        private final String[] globals;
+        private final boolean[] constantGlobals;
+        private final String[] externals;
+        private final int[] externalArities;
+        private final Function[] functions;
+        private final int initializer;
+        private final int main;
+
+        private Program(Object[] constants, String[] globals, boolean[] constantGlobals, String[] externals, int[] externalArities, Function[] functions, int initializer, int main) {
+            this.constants = constants;
+            this.globals = globals;
+            this.constantGlobals = constantGlobals;
+            this.externals = externals;
+            this.externalArities = externalArities;
+            this.functions = functions;
+            this.initializer = initializer;
+            this.main = main;
+        }
+
+        public List<Function> getFunctions() {
+            return List.of(functions);
+        }
+
+        public List<Object> getConstants() {
+            return Arrays.asList(constants);
+        }
+
+        public void write(OutputStream stream) throws IOException {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(constants.length);
+            for (Object constant : constants) {
+                if (constant instanceof BigInteger) {
+                    out.writeByte(0);
+                    writeString(out, constant.toString());
+                } else if (constant instanceof BigDecimal) {
+                    out.writeByte(1);
+                    writeString(out, constant.toString());
+                } else if (constant instanceof String) {
+                    out.writeByte(2);
+                    writeString(out, (String) constant);
+                } else if (constant instanceof Character) {
+                    out.writeByte(3);
+                    out.writeChar((Character) constant);
+                } else if (constant instanceof Boolean) {
+                    out.writeByte(4);
+                    out.writeBoolean((Boolean) constant);
+                } else {
+                    throw new IOException("Cannot serialize constant " + constant + ".");
+                }
+            }
+            out.writeInt(globals.length);
+            for (int i = 0; i < globals.length; i++) {
+                writeString(out, globals[i]);
+                out.writeBoolean(constantGlobals[i]);
+            }
+            out.writeInt(externals.length);
+            for (int i = 0; i < externals.length; i++) {
+                writeString(out, externals[i]);
+                out.writeInt(externalArities[i]);
+            }
+            out.writeInt(functions.length);
+            for (Function function : functions) {
+                writeString(out, function.name);
+                out.writeInt(function.arity);
+                out.writeInt(function.registers);
+                out.writeInt(function.code.length);
+                for (int word : function.code) {
+                    out.writeInt(word);
+                }
+            }
+            out.writeInt(initializer);
+            out.writeInt(main);
+            out.flush();
+        }
+
+        public static Program read(InputStream stream) throws IOException {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a compiled PLC program.");
+            }
+            Object[] constants = new Object[in.readInt()];
+            for (int i = 0; i < constants.length; i++) {
+                int tag = in.readByte();
+                switch (tag) {
+                    case 0: constants[i] = new BigInteger(readString(in)); break;
+                    case 1: constants[i] = new BigDecimal(readString(in)); break;
+                    case 2: constants[i] = readString(in); break;
+                    case 3: constants[i] = in.readChar(); break;
+                    case 4: constants[i] = in.readBoolean(); break;
+                    default: throw new IOException("Unknown constant tag " + tag + ".");
+                }
+            }
+            String[] globals = new String[in.readInt()];
+            boolean[] constantGlobals = new boolean[globals.length];
+            for (int i = 0; i < globals.length; i++) {
+                globals[i] = readString(in);
+                constantGlobals[i] = in.readBoolean();
+            }
+            String[] externals = new String[in.readInt()];
+            int[] externalArities = new int[externals.length];
+            for (int i = 0; i < externals.length; i++) {
+                externals[i] = readString(in);
+                externalArities[i] = in.readInt();
+            }
+            Function[] functions = new Function[in.readInt()];
+            for (int i = 0; i < functions.length; i++) {
+                String name = readString(in);
+                int arity = in.readInt();
+                int registers = in.readInt();
+                int[] code = new int[in.readInt()];
+                for (int j = 0; j < code.length; j++) {
+                    code[j] = in.readInt();
+                }
+                functions[i] = new Function(name, arity, registers, code);
+            }
+            int initializer = in.readInt();
+            int main = in.readInt();
+            return new Program(constants, globals, constantGlobals, externals, externalArities, functions, initializer, main);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeInt(value.length());
+            out.writeChars(value);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            char[] chars = new char[in.readInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.readChar();
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Mutable state shared by the emitters of one source.
+         */
+        private static final class Builder {
+
+            private final List<Object> constants = new ArrayList<>();
+            private final Map<Object, Integer> constantIndex = new HashMap<>();
+            private final List<String> globalNames = new ArrayList<>();
+            private final List<Boolean> globalConstants = new ArrayList<>();
+            private final Map<String, Integer> globalIndex = new HashMap<>();
+            private final List<String> externals = new ArrayList<>();
+            private final List<Integer> externalArities = new ArrayList<>();
+            private final Map<String, Integer> externalIndex = new HashMap<>();
+            private final List<Function> functions = new ArrayList<>();
+            private final Map<String, Integer> functionIndex = new HashMap<>();
+
+            private int constant(Object value) {
+                //keyed by class too, so 1 and 1.0 or 'a' and "a" stay distinct
+                List<Object> key = List.of(value.getClass(), value);
+                Integer index = constantIndex.get(key);
+                if (index == null) {
+                    index = constants.size();
+                    constants.add(value);
+                    constantIndex.put(key, index);
+                }
+                return index;
+            }
+
+            private int external(String name, int arity) {
+                return externalIndex.computeIfAbsent(name + "/" + arity, key -> {
+                    externals.add(name);
+                    externalArities.add(arity);
+                    return externals.size() - 1;
+                });
+            }
+
+            private Program build(int initializer, int main) {
+                boolean[] constantGlobals = new boolean[globalConstants.size()];
+                for (int i = 0; i < constantGlobals.length; i++) {
+                    constantGlobals[i] = globalConstants.get(i);
+                }
+                return new Program(
+                        constants.toArray(),
+                        globalNames.toArray(new String[0]),
+                        constantGlobals,
+                        externals.toArray(new String[0]),
+                        externalArities.stream().mapToInt(Integer::intValue).toArray(),
+                        functions.toArray(new Function[0]),
+                        initializer,
+                        main
+                );
+            }
+
+        }
+
+    }
+
+    /**
+     * Translates one method body to register code. Expression visits return
+     * the register holding the result, which for a local variable is the
+     * variable's own register; temporaries are allocated stack-wise above the
+     * locals of the enclosing blocks.
+     */
+    private static final class Emitter implements Ast.Visitor<Integer> {
+
+        private final Program.Builder builder;
+        private final String name;
+        private final int arity;
+        private int[] code = new int[64];
+        private int size = 0;
+        private int top = 0;
+        private int registers = 0;
+        private final Deque<Map<String, Integer>> locals = new ArrayDeque<>();
+
+        private Emitter(Program.Builder builder, String name, int arity) {
+            this.builder = builder;
+            this.name = name;
+            this.arity = arity;
+            locals.push(new HashMap<>());
+        }
+
+        private Function finish() {
+            emit(RETNIL, 0, 0, 0);
+            return new Function(name, arity, Math.max(registers, 1), Arrays.copyOf(code, size));
+        }
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            throw new AssertionError("Sources are compiled by VirtualMachine.compile.");
+        }
+
+        @Override
+        public Integer visit(Ast.Field ast) {
+            int global = builder.globalIndex.get(ast.getName());
+            if (ast.getValue().isPresent()) {
+                int mark = top;
+                int value = visit(ast.getValue().get());
+                emit(SETG, global, value, 0);
+                top = mark;
+            }
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Method ast) {
+            for (String parameter : ast.getParameters()) {
+                locals.peek().put(parameter, temp());
+            }
+            for (Ast.Statement statement : ast.getStatements()) {
+                visit(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Expression ast) {
+            int mark = top;
+            visit(ast.getExpression());
+            top = mark;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Declaration ast) {
+            int register = temp();
+            if (ast.getValue().isPresent()) {
+                int value = visit(ast.getValue().get());
+                move(register, value);
+            } else {
+                emit(LOADNIL, register, 0, 0);
+            }
+            top = register + 1;
+            locals.peek().put(ast.getName(), register);
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Assignment ast) {
+            if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
+                throw new RuntimeException("receiver is not of type Ast.Expression.Access :(");
+            }
+            Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+            int mark = top;
+            int value = visit(ast.getValue());
+            if (receiver.getReceiver().isPresent()) {
+                int object = visit(receiver.getReceiver().get());
+                emit(SETF, object, builder.constant(receiver.getName()), value);
+            } else {
+                Integer local = lookup(receiver.getName());
+                if (local != null) {
+                    move(local, value);
+                } else if (builder.globalIndex.containsKey(receiver.getName())) {
+                    emit(SETG, builder.globalIndex.get(receiver.getName()), value, 0);
+                } else {
+                    undefined(receiver.getName());
+                }
+            }
+            top = mark;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.If ast) {
+            int mark = top;
+            int condition = visit(ast.getCondition());
+            top = mark;
+            int otherwise = emit(JMPF, condition, -1, 0);
+            block(ast.getThenStatements());
+            int end = emit(JMP, -1, 0, 0);
+            code[otherwise + 2] = size;
+            block(ast.getElseStatements());
+            code[end + 1] = size;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.For ast) {
+            if (ast.getInitialization() != null) {
+                visit(ast.getInitialization());
+            }
+            int start = size;
+            int mark = top;
+            int condition = visit(ast.getCondition());
+            top = mark;
+            int exit = emit(JMPF, condition, -1, 0);
+            block(ast.getStatements());
+            if (ast.getIncrement() != null) {
+                visit(ast.getIncrement());
+            }
+            emit(JMP, start, 0, 0);
+            code[exit + 2] = size;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.While ast) {
+            int start = size;
+            int mark = top;
+            int condition = visit(ast.getCondition());
+            top = mark;
+            int exit = emit(JMPF, condition, -1, 0);
+            block(ast.getStatements());
+            emit(JMP, start, 0, 0);
+            code[exit + 2] = size;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Return ast) {
+            int mark = top;
+            emit(RET, visit(ast.getValue()), 0, 0);
+            top = mark;
+            return null;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Literal ast) {
+            int register = temp();
+            if (ast.getLiteral() == null) {
+                emit(LOADNIL, register, 0, 0);
+            } else {
+                emit(LOADK, register, builder.constant(ast.getLiteral()), 0);
+            }
+            return register;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Group ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Binary ast) {
+            int mark = top;
+            if (ast.getOperator().equals("||")) {
+                //short circuits like the Interpreter, checking each operand is a Boolean
+                int result = temp();
+                move(result, visit(ast.getLeft()));
+                int jump = emit(JMPT, result, -1, 0);
+                move(result, visit(ast.getRight()));
+                emit(CHECKB, result, 0, 0);
+                code[jump + 2] = size;
+                top = result + 1;
+                return result;
+            }
+            int left = visit(ast.getLeft());
+            int right = visit(ast.getRight());
+            top = mark;
+            int result = temp();
+            emit(opcode(ast.getOperator()), result, left, right);
+            return result;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Access ast) {
+            if (ast.getReceiver().isPresent()) {
+                int object = visit(ast.getReceiver().get());
+                int result = temp();
+                emit(GETF, result, object, builder.constant(ast.getName()));
+                return result;
+            }
+            Integer local = lookup(ast.getName());
+            if (local != null) {
+                return local;
+            }
+            int result = temp();
+            if (builder.globalIndex.containsKey(ast.getName())) {
+                emit(GETG, result, builder.globalIndex.get(ast.getName()), 0);
+            } else {
+                undefined(ast.getName());
+            }
+            return result;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Function ast) {
+            int arity = ast.getArguments().size();
+            //arguments go in consecutive registers, after the receiver slot for methods
+            int base = temp();
+            int first = ast.getReceiver().isPresent() ? base + 1 : base;
+            top = first;
+            for (Ast.Expression argument : ast.getArguments()) {
+                int slot = temp();
+                move(slot, visit(argument));
+                top = slot + 1;
+            }
+            if (ast.getReceiver().isPresent()) {
+                move(base, visit(ast.getReceiver().get()));
+                emit(INVOKE, base, builder.constant(ast.getName()), (arity << 16) | base);
+            } else {
+                Integer function = builder.functionIndex.get(ast.getName() + "/" + arity);
+                if (function != null) {
+                    emit(CALL, base, function, base);
+                } else {
+                    emit(CALLX, base, builder.external(ast.getName(), arity), base);
+                }
+            }
+            top = base + 1;
+            return base;
+        }
+
+        private void block(List<Ast.Statement> statements) {
+            int mark = top;
+            locals.push(new HashMap<>());
+            for (Ast.Statement statement : statements) {
+                visit(statement);
+            }
+            locals.pop();
+            top = mark;
+        }
+
+        private Integer lookup(String name) {
+            for (Map<String, Integer> scope : locals) {
+                if (scope.containsKey(name)) {
+                    return scope.get(name);
+                }
+            }
+            return null;
+        }
+
+        private void undefined(String name) {
+            //deferred to run time, matching the Interpreter's behaviour
+            emit(ERROR, builder.constant("The variable " + name + " is not defined in this scope."), 0, 0);
+        }
+
+        private int temp() {
+            int register = top++;
+            registers = Math.max(registers, top);
+            return register;
+        }
+
+        private void move(int target, int source) {
+            if (target != source) {
+                emit(MOVE, target, source, 0);
+            }
+        }
+
+        private int emit(int op, int a, int b, int c) {
+            if (size + 4 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            int at = size;
+            code[size++] = op;
+            code[size++] = a;
+            code[size++] = b;
+            code[size++] = c;
+            return at;
+        }
+
+        private static int opcode(String operator) {
+            switch (operator) {
+                case "&&": return AND;
+                case "<": return LT;
+                case "<=": return LE;
+                case ">": return GT;
+                case ">=": return GE;
+                case "==": return EQ;
+                case "!=": return NE;
+                case "+": return ADD;
+                case "-": return SUB;
+                case "*": return MUL;
+                case "/": return DIV;
+                default: throw new RuntimeException("Cannot identify operator.");
+            }
+        }
+
+    }
+
+}
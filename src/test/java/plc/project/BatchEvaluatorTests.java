@@ -0,0 +1,117 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class BatchEvaluatorTests {
+
+    // LET total = 0;
+    // DEF main() DO total = total + x; RETURN 100 / (total * y); END
+    private static final ProgramImage IMAGE = new ProgramImage(new Ast.Source(
+            Arrays.asList(new Ast.Field("total", false, Optional.of(new Ast.Expression.Literal(BigInteger.ZERO)))),
+            Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                    new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+", access("total"), access("x"))),
+                    new Ast.Statement.Return(new Ast.Expression.Binary("/",
+                            new Ast.Expression.Literal(BigInteger.valueOf(100)),
+                            new Ast.Expression.Group(new Ast.Expression.Binary("*", access("total"), access("y")))
+                    ))
+            )))
+    ), null);
+
+    @Test
+    void testColumns() {
+        List<BigInteger> x = new ArrayList<>();
+        List<BigInteger> y = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            x.add(BigInteger.valueOf(1 + i % 3));
+            y.add(BigInteger.valueOf(1 + i % 2));
+        }
+        Object[] results = new Object[10000];
+        BatchEvaluator.Result result = new BatchEvaluator(IMAGE, Arrays.asList("x", "y"))
+                .evaluate(BatchEvaluator.columns(x, y), (record, value) -> results[(int) record] = value.getValue());
+        Assertions.assertEquals(10000, result.getRecords());
+        Assertions.assertTrue(result.getRecordsPerSecond() > 0);
+        for (int i = 0; i < 10000; i++) {
+            //fields start over for every record
+            Assertions.assertEquals(BigInteger.valueOf(100 / ((1 + i % 3) * (1 + i % 2))), results[i]);
+        }
+    }
+
+    @Test
+    void testStreamed() {
+        List<Object[]> records = new LinkedList<>();
+        for (int i = 0; i < 70000; i++) {
+            records.add(new Object[] {BigInteger.valueOf(i % 5), BigInteger.ONE});
+        }
+        AtomicLong sum = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        BatchEvaluator.Result result = new BatchEvaluator(IMAGE, Arrays.asList("x", "y")).evaluate(records, new BatchEvaluator.Output() {
+
+            @Override
+            public void write(long record, Environment.PlcObject value) {
+                sum.addAndGet(((BigInteger) value.getValue()).longValue());
+            }
+
+            @Override
+            public void fail(long record, RuntimeException exception) {
+                Assertions.assertEquals(0, record % 5);
+                failures.incrementAndGet();
+            }
+
+        });
+        Assertions.assertEquals(70000, result.getRecords());
+        Assertions.assertEquals(14000, failures.get());
+        Assertions.assertEquals(14000 * (100 + 50 + 33 + 25), sum.get());
+    }
+
+    @Test
+    void testFieldFailure() {
+        // LET a = x; LET b = 100 / x;
+        // DEF main() DO RETURN a + b; END
+        ProgramImage image = new ProgramImage(new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("a", false, Optional.of(access("x"))),
+                        new Ast.Field("b", false, Optional.of(new Ast.Expression.Binary("/", new Ast.Expression.Literal(BigInteger.valueOf(100)), access("x"))))
+                ),
+                Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Return(new Ast.Expression.Binary("+", access("a"), access("b")))
+                )))
+        ), null);
+        List<Object[]> records = Arrays.asList(new Object[][] {{BigInteger.ZERO}, {BigInteger.ONE}, {BigInteger.TWO}});
+        List<Object> results = new ArrayList<>(Arrays.asList(null, null, null));
+        new BatchEvaluator(image, Arrays.asList("x")).evaluate(records, new BatchEvaluator.Output() {
+
+            @Override
+            public void write(long record, Environment.PlcObject value) {
+                results.set((int) record, value.getValue());
+            }
+
+            @Override
+            public void fail(long record, RuntimeException exception) {
+                results.set((int) record, exception.getMessage());
+            }
+
+        });
+        //the first record fails after defining a, and the interpreter stays usable
+        Assertions.assertEquals(Arrays.asList("Trying to divide by zero.", BigInteger.valueOf(101), BigInteger.valueOf(52)), results);
+    }
+
+    @Test
+    void testFailure() {
+        List<Object[]> records = Arrays.asList(new Object[][] {{BigInteger.ONE, BigInteger.ONE}, {BigInteger.ZERO, BigInteger.ONE}});
+        Assertions.assertThrows(RuntimeException.class, () -> new BatchEvaluator(IMAGE, Arrays.asList("x", "y")).evaluate(records, (record, value) -> {}));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
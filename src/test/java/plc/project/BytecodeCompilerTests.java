@@ -0,0 +1,144 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+final class BytecodeCompilerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testSource(String test, Ast.Source ast, Integer expected) {
+        new Analyzer(new Scope(null)).visit(ast);
+        if (expected != null) {
+            Assertions.assertEquals(expected.intValue(), new BytecodeCompiler().run(ast));
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> new BytecodeCompiler().run(ast));
+        }
+    }
+
+    private static Stream<Arguments> testSource() {
+        return Stream.of(
+                // DEF main(): Integer DO RETURN 1 + 2 * 3; END
+                Arguments.of("Arithmetic",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                        literal(1),
+                                        new Ast.Expression.Binary("*", literal(2), literal(3))
+                                ))
+                        ))),
+                        7
+                ),
+                // LET total: Integer = 0; DEF main(): Integer DO LET i = 0; WHILE i < 5 DO total = total + i; i = i + 1; END RETURN total; END
+                Arguments.of("While & Field",
+                        new Ast.Source(
+                                Arrays.asList(new Ast.Field("total", "Integer", false, Optional.of(literal(0)))),
+                                Arrays.asList(main(
+                                        new Ast.Statement.Declaration("i", Optional.empty(), Optional.of(literal(0))),
+                                        new Ast.Statement.While(
+                                                new Ast.Expression.Binary("<", access("i"), literal(5)),
+                                                Arrays.asList(
+                                                        new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+", access("total"), access("i"))),
+                                                        new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                                                )
+                                        ),
+                                        new Ast.Statement.Return(access("total"))
+                                ))
+                        ),
+                        10
+                ),
+                // DEF fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END
+                // DEF main(): Integer DO RETURN fib(20); END
+                Arguments.of("Recursion",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(
+                                new Ast.Method("fib", Arrays.asList("n"), Arrays.asList("Integer"), Optional.of("Integer"), Arrays.asList(
+                                        new Ast.Statement.If(
+                                                new Ast.Expression.Binary("<", access("n"), literal(2)),
+                                                Arrays.asList(new Ast.Statement.Return(access("n"))),
+                                                Arrays.asList()
+                                        ),
+                                        new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                                call("fib", new Ast.Expression.Binary("-", access("n"), literal(1))),
+                                                call("fib", new Ast.Expression.Binary("-", access("n"), literal(2)))
+                                        ))
+                                )),
+                                main(new Ast.Statement.Return(call("fib", literal(20))))
+                        )),
+                        6765
+                ),
+                // DEF main(): Integer DO IF 1.5 < 2.5 && 'a' != 'b' DO RETURN 1; ELSE RETURN 0; END END
+                Arguments.of("Decimal & Character Comparison",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.If(
+                                        new Ast.Expression.Binary("&&",
+                                                new Ast.Expression.Binary("<", new Ast.Expression.Literal(new BigDecimal("1.5")), new Ast.Expression.Literal(new BigDecimal("2.5"))),
+                                                new Ast.Expression.Binary("!=", new Ast.Expression.Literal('a'), new Ast.Expression.Literal('b'))
+                                        ),
+                                        Arrays.asList(new Ast.Statement.Return(literal(1))),
+                                        Arrays.asList(new Ast.Statement.Return(literal(0)))
+                                )
+                        ))),
+                        1
+                ),
+                // DEF main(): Integer DO RETURN 1 / 0; END
+                Arguments.of("Division By Zero",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("/", literal(1), literal(0)))
+                        ))),
+                        null
+                )
+        );
+    }
+
+    @Test
+    void testPrint() {
+        // LET name: String = "x"; DEF main(): Integer DO print(name + 1); print("abc".slice(1, 3)); RETURN 0; END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("name", "String", true, Optional.of(new Ast.Expression.Literal("x")))),
+                Arrays.asList(main(
+                        new Ast.Statement.Expression(call("print", new Ast.Expression.Binary("+", access("name"), literal(1)))),
+                        new Ast.Statement.Expression(call("print", new Ast.Expression.Function(
+                                Optional.of(new Ast.Expression.Literal("abc")), "slice", Arrays.asList(literal(1), literal(3))
+                        ))),
+                        new Ast.Statement.Return(literal(0))
+                ))
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Assertions.assertEquals(0, new BytecodeCompiler().run(ast));
+            Assertions.assertEquals("x1" + System.lineSeparator() + "bc" + System.lineSeparator(), out.toString());
+        } finally {
+            System.setOut(sysout);
+        }
+    }
+
+    private static Ast.Method main(Ast.Statement... statements) {
+        return new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+    private static Ast.Expression.Function call(String name, Ast.Expression... arguments) {
+        return new Ast.Expression.Function(Optional.empty(), name, Arrays.asList(arguments));
+    }
+
+}
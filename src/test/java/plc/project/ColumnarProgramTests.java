@@ -0,0 +1,92 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+final class ColumnarProgramTests {
+
+    // DEF main() DO
+    //     LET s = a + b * 3;
+    //     RETURN s > c && (a - c) / 7 != b || flag;
+    // END
+    private static final Ast.Method MAIN = new Ast.Method("main", Arrays.asList(), Arrays.asList(
+            new Ast.Statement.Declaration("s", Optional.of(new Ast.Expression.Binary("+",
+                    access("a"),
+                    new Ast.Expression.Binary("*", access("b"), literal(3))
+            ))),
+            new Ast.Statement.Return(new Ast.Expression.Binary("||",
+                    new Ast.Expression.Binary("&&",
+                            new Ast.Expression.Binary(">", access("s"), access("c")),
+                            new Ast.Expression.Binary("!=",
+                                    new Ast.Expression.Binary("/", new Ast.Expression.Group(new Ast.Expression.Binary("-", access("a"), access("c"))), literal(7)),
+                                    access("b")
+                            )
+                    ),
+                    access("flag")
+            ))
+    ));
+
+    @Test
+    void testMatchesInterpreter() {
+        Random random = new Random(44);
+        int length = 1000;
+        long[] a = new long[length];
+        int[] b = new int[length];
+        long[] c = new long[length];
+        boolean[] flag = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            a[i] = random.nextInt(200) - 100;
+            b[i] = random.nextInt(20) - 10;
+            c[i] = random.nextInt(200) - 100;
+            flag[i] = random.nextInt(4) == 0;
+        }
+        ColumnarProgram program = ColumnarProgram.compile(MAIN);
+        Assertions.assertEquals(Arrays.asList("a", "b", "c", "flag"), Arrays.asList(program.getInputs().toArray()));
+        boolean[] result = (boolean[]) program.evaluate(Map.of("a", a, "b", b, "c", c, "flag", flag));
+        ProgramImage image = new ProgramImage(new Ast.Source(Arrays.asList(), Arrays.asList(MAIN)), null);
+        for (int i = 0; i < length; i++) {
+            Interpreter interpreter = Interpreter.of(image);
+            interpreter.getScope().defineVariable("a", true, Environment.create(BigInteger.valueOf(a[i])));
+            interpreter.getScope().defineVariable("b", true, Environment.create(BigInteger.valueOf(b[i])));
+            interpreter.getScope().defineVariable("c", true, Environment.create(BigInteger.valueOf(c[i])));
+            interpreter.getScope().defineVariable("flag", true, Environment.create(flag[i]));
+            Assertions.assertEquals(interpreter.execute().getValue(), result[i]);
+        }
+    }
+
+    @Test
+    void testOverflow() {
+        ColumnarProgram program = ColumnarProgram.compile(new Ast.Expression.Binary("*", access("x"), access("x")));
+        Assertions.assertArrayEquals(new long[] {9, 1L << 62}, (long[]) program.evaluate(Map.of("x", new long[] {3, 1L << 31})));
+        Assertions.assertThrows(ArithmeticException.class, () -> program.evaluate(Map.of("x", new long[] {3, 1L << 32})));
+        Assertions.assertThrows(RuntimeException.class, () -> ColumnarProgram.compile(new Ast.Expression.Binary("/", access("x"), access("y")))
+                .evaluate(Map.of("x", new long[] {1, 2}, "y", new long[] {1, 0})));
+    }
+
+    @Test
+    void testUnsupported() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ColumnarProgram.compile(new Ast.Expression.Literal(BigDecimal.ONE)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ColumnarProgram.compile(new Ast.Expression.Function(Optional.empty(), "f", Arrays.asList())));
+        //the right of || may not be evaluated by the Interpreter, so it must not fail
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ColumnarProgram.compile(new Ast.Expression.Binary("||",
+                access("p"),
+                new Ast.Expression.Binary("==", new Ast.Expression.Binary("/", access("x"), access("y")), literal(1))
+        )));
+    }
+
+    private static Ast.Expression.Literal literal(long value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
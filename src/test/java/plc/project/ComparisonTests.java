@@ -0,0 +1,67 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.stream.Stream;
+
+final class ComparisonTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testSpecialized(String test, String operator, Object left, Object right, Environment.Type type, boolean expected) {
+        Ast.Expression.Binary ast = new Ast.Expression.Binary(operator, literal(left, type), literal(right, type));
+        Environment.PlcObject result = new Interpreter(new Scope(null)).visit(ast);
+        Assertions.assertSame(Environment.create(expected), result);
+    }
+
+    private static Stream<Arguments> testSpecialized() {
+        return Stream.of(
+                Arguments.of("Integer Less", "<", BigInteger.ONE, BigInteger.TEN, Environment.Type.INTEGER, true),
+                Arguments.of("Integer Greater Equal", ">=", BigInteger.TEN, BigInteger.TEN, Environment.Type.INTEGER, true),
+                Arguments.of("Decimal Less Equal", "<=", new BigDecimal("1.50"), new BigDecimal("1.5"), Environment.Type.DECIMAL, true),
+                Arguments.of("Character Greater", ">", 'a', 'b', Environment.Type.CHARACTER, false),
+                Arguments.of("String Greater Equal", ">=", "abc", "abd", Environment.Type.STRING, false)
+        );
+    }
+
+    @Test
+    void testGreaterEqual() {
+        //unanalyzed operands take the generic path
+        Ast.Expression.Binary ast = new Ast.Expression.Binary(">=",
+                new Ast.Expression.Literal(BigInteger.ONE),
+                new Ast.Expression.Literal(BigInteger.ONE)
+        );
+        Assertions.assertSame(Environment.TRUE, new Interpreter(new Scope(null)).visit(ast));
+    }
+
+    @Test
+    void testMismatchedValues() {
+        //values that do not match the recorded types fall back to the generic checks
+        Ast.Expression.Binary ast = new Ast.Expression.Binary("<",
+                literal(BigInteger.ONE, Environment.Type.INTEGER),
+                literal(new BigDecimal("2.0"), Environment.Type.INTEGER)
+        );
+        Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(ast));
+    }
+
+    @Test
+    void testNotComparison() {
+        Assertions.assertNull(new Ast.Expression.Binary("==",
+                new Ast.Expression.Literal(BigInteger.ONE),
+                new Ast.Expression.Literal(BigInteger.ONE)
+        ).getComparison());
+    }
+
+    private static Ast.Expression.Literal literal(Object value, Environment.Type type) {
+        Ast.Expression.Literal literal = new Ast.Expression.Literal(value);
+        literal.setType(type);
+        return literal;
+    }
+
+}
@@ -0,0 +1,108 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+final class ConstantFolderTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testExpression(String test, Ast.Expression ast, String expected) {
+        Scope scope = new Scope(null);
+        scope.defineVariable("x", "x", Environment.Type.INTEGER, false, Environment.NIL);
+        scope.defineVariable("b", "b", Environment.Type.BOOLEAN, false, Environment.NIL);
+        scope.defineVariable("s", "s", Environment.Type.STRING, false, Environment.NIL);
+        new Analyzer(scope).visit(ast);
+        test(new ConstantFolder().visit(ast), expected);
+    }
+
+    private static Stream<Arguments> testExpression() {
+        return Stream.of(
+                Arguments.of("Integer Arithmetic", binary("*", integer(2), new Ast.Expression.Group(binary("+", integer(3), integer(4)))), "14"),
+                Arguments.of("Integer Overflow", binary("*", integer(65536), integer(65536)), "65536 * 65536"),
+                Arguments.of("Division By Zero", binary("/", integer(1), integer(0)), "1 / 0"),
+                Arguments.of("Exact Decimal", binary("*", decimal("1.5"), decimal("2.0")), "3.00"),
+                Arguments.of("Inexact Decimal", binary("+", decimal("0.1"), decimal("0.2")), "0.1 + 0.2"),
+                Arguments.of("Comparison", binary(">=", integer(2), integer(2)), "true"),
+                Arguments.of("Concatenation", binary("+", new Ast.Expression.Literal("a"), new Ast.Expression.Literal("b")), "\"ab\""),
+                Arguments.of("Mixed Concatenation", binary("+", new Ast.Expression.Literal("a"), integer(1)), "\"a\" + 1"),
+                Arguments.of("Add Zero", binary("+", access("x"), integer(0)), "x"),
+                Arguments.of("Multiply One", binary("*", integer(1), new Ast.Expression.Group(binary("-", access("x"), integer(1)))), "(x - 1)"),
+                Arguments.of("String Add Zero", binary("+", access("s"), integer(0)), "s + 0"),
+                Arguments.of("And True", binary("&&", new Ast.Expression.Literal(true), access("b")), "b"),
+                //b is NIL here, and || checks its left operand
+                Arguments.of("Or True", binary("||", access("b"), new Ast.Expression.Literal(true)), "b || true"),
+                Arguments.of("And False", binary("&&", new Ast.Expression.Literal(false), new Ast.Expression.Group(binary("==", access("x"), integer(1)))), "false"),
+                Arguments.of("And False Division", binary("&&", new Ast.Expression.Literal(false), new Ast.Expression.Group(binary("==", binary("/", integer(1), access("x")), integer(1)))), "false && (1 / x == 1)"),
+                Arguments.of("Multiply Zero Division", binary("*", integer(0), new Ast.Expression.Group(binary("/", access("x"), access("x")))), "0 * (x / x)")
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testSource(String test, Ast.Source ast, String expected) {
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(new ConstantFolder().rewrite(ast));
+        Assertions.assertTrue(writer.toString().contains(expected), writer.toString());
+    }
+
+    private static Stream<Arguments> testSource() {
+        return Stream.of(
+                // DEF main(): Integer DO IF 1 < 2 DO print(1); ELSE print(2); END WHILE FALSE DO print(3); END RETURN 0; END
+                Arguments.of("Dead Branches",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                                new Ast.Statement.If(binary("<", integer(1), integer(2)),
+                                        Arrays.asList(print(integer(1))),
+                                        Arrays.asList(print(integer(2)))
+                                ),
+                                new Ast.Statement.While(new Ast.Expression.Literal(false), Arrays.asList(print(integer(3)))),
+                                new Ast.Statement.Return(integer(0))
+                        )))),
+                        String.join(System.lineSeparator(),
+                                "    int main() {",
+                                "        System.out.println(1);",
+                                "        return 0;",
+                                "    }"
+                        )
+                )
+        );
+    }
+
+    private static void test(Ast ast, String expected) {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(ast);
+        Assertions.assertEquals(expected, writer.toString());
+    }
+
+    private static Ast.Expression.Binary binary(String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(operator, left, right);
+    }
+
+    private static Ast.Expression.Literal integer(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Literal decimal(String value) {
+        return new Ast.Expression.Literal(new BigDecimal(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+    private static Ast.Statement.Expression print(Ast.Expression argument) {
+        return new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "print", Arrays.asList(argument)));
+    }
+
+}
@@ -0,0 +1,147 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+
+final class DeadCodeEliminatorTests {
+
+    @Test
+    void testSource() {
+        // LET unused: Integer = 1;
+        // LET used: Integer = 2;
+        // DEF helper(): Integer DO RETURN used; END
+        // DEF orphan(): Integer DO RETURN unused; END
+        // DEF main(): Integer DO
+        //     LET a = 1; LET b = a;
+        //     LET c = helper();
+        //     IF c > 0 DO RETURN c; ELSE RETURN 0; END
+        //     print(c);
+        // END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("unused", "Integer", false, Optional.of(literal(1))),
+                        new Ast.Field("used", "Integer", false, Optional.of(literal(2)))
+                ),
+                Arrays.asList(
+                        method("helper", new Ast.Statement.Return(access("used"))),
+                        method("orphan", new Ast.Statement.Return(access("unused"))),
+                        method("main",
+                                new Ast.Statement.Declaration("a", Optional.of(literal(1))),
+                                new Ast.Statement.Declaration("b", Optional.of(access("a"))),
+                                new Ast.Statement.Declaration("c", Optional.of(new Ast.Expression.Function(Optional.empty(), "helper", Arrays.asList()))),
+                                new Ast.Statement.If(
+                                        new Ast.Expression.Binary(">", access("c"), literal(0)),
+                                        Arrays.asList(new Ast.Statement.Return(access("c"))),
+                                        Arrays.asList(new Ast.Statement.Return(literal(0)))
+                                ),
+                                new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "print", Arrays.asList(access("c"))))
+                        )
+                )
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(eliminator.rewrite(ast));
+        Assertions.assertEquals(Arrays.asList(
+                "method orphan/0",
+                "declaration b in main/0",
+                "1 unreachable statement(s) in main/0",
+                "field unused",
+                "declaration a in main/0"
+        ), eliminator.getRemoved());
+        Assertions.assertEquals(String.join(System.lineSeparator(),
+                "public class Main {",
+                "",
+                "    int used = 2;",
+                "",
+                "    public static void main(String[] args) {",
+                "        System.exit(new Main().main());",
+                "    }",
+                "",
+                "    int helper() {",
+                "        return used;",
+                "    }",
+                "",
+                "    int main() {",
+                "        int c = helper();",
+                "        if (c > 0) {",
+                "            return c;",
+                "        } else {",
+                "            return 0;",
+                "        }",
+                "    }",
+                "",
+                "}"
+        ), writer.toString());
+    }
+
+    @Test
+    void testFailingValues() {
+        // LET zero: Integer = 0;
+        // LET failing: Integer = 1 / zero;
+        // LET halved: Integer = 1 / 2;
+        // DEF main(): Integer DO LET d = 10 / zero; RETURN 0; END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("zero", "Integer", false, Optional.of(literal(0))),
+                        new Ast.Field("failing", "Integer", false, Optional.of(new Ast.Expression.Binary("/", literal(1), access("zero")))),
+                        new Ast.Field("halved", "Integer", false, Optional.of(new Ast.Expression.Binary("/", literal(1), literal(2))))
+                ),
+                Arrays.asList(method("main",
+                        new Ast.Statement.Declaration("d", Optional.of(new Ast.Expression.Binary("/", literal(10), access("zero")))),
+                        new Ast.Statement.Return(literal(0))
+                ))
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        Ast.Source result = eliminator.rewrite(ast);
+        //divisions that may fail are kept, so the program still fails
+        Assertions.assertEquals(Arrays.asList("field halved"), eliminator.getRemoved());
+        Assertions.assertEquals(2, result.getFields().size());
+        Assertions.assertEquals(2, result.getMethods().get(0).getStatements().size());
+    }
+
+    @Test
+    void testNilValues() {
+        // DEF main(): Integer DO
+        //     LET x: Integer; LET y = x + 1;
+        //     LET one = 1; LET two = one + 1;
+        //     RETURN 0;
+        // END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(),
+                Arrays.asList(method("main",
+                        new Ast.Statement.Declaration("x", Optional.of("Integer"), Optional.empty()),
+                        new Ast.Statement.Declaration("y", Optional.of(new Ast.Expression.Binary("+", access("x"), literal(1)))),
+                        new Ast.Statement.Declaration("one", Optional.of(literal(1))),
+                        new Ast.Statement.Declaration("two", Optional.of(new Ast.Expression.Binary("+", access("one"), literal(1)))),
+                        new Ast.Statement.Return(literal(0))
+                ))
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        Ast.Source result = eliminator.rewrite(ast);
+        //x + 1 fails since x is NIL, so y and x are kept
+        Assertions.assertEquals(Arrays.asList("declaration two in main/0", "declaration one in main/0"), eliminator.getRemoved());
+        Assertions.assertEquals(3, result.getMethods().get(0).getStatements().size());
+    }
+
+    private static Ast.Method method(String name, Ast.Statement... statements) {
+        return new Ast.Method(name, Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
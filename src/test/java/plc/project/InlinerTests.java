@@ -0,0 +1,160 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+final class InlinerTests {
+
+    @Test
+    void testSubstitution() {
+        // DEF square(x: Integer): Integer DO RETURN x * x; END
+        // DEF main(): Integer DO LET a = 3; RETURN 2 * square(a); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                method("square", Arrays.asList("x"), new Ast.Statement.Return(new Ast.Expression.Binary("*", access("x"), access("x")))),
+                method("main", Arrays.asList(),
+                        new Ast.Statement.Declaration("a", Optional.of(literal(3))),
+                        new Ast.Statement.Return(new Ast.Expression.Binary("*", literal(2), call("square", access("a"))))
+                )
+        ));
+        new Analyzer(new Scope(null)).visit(ast);
+        Inliner inliner = new Inliner();
+        Ast.Source rewritten = inliner.rewrite(ast);
+        Assertions.assertEquals(1, inliner.getInlined());
+        Assertions.assertEquals(String.join(System.lineSeparator(),
+                "public class Main {",
+                "",
+                "    public static void main(String[] args) {",
+                "        System.exit(new Main().main());",
+                "    }",
+                "",
+                "    int square(int x) {",
+                "        return x * x;",
+                "    }",
+                "",
+                "    int main() {",
+                "        int a = 3;",
+                "        return 2 * (a * a);",
+                "    }",
+                "",
+                "}"
+        ), generate(rewritten));
+        Assertions.assertEquals(BigInteger.valueOf(18), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testStatements() {
+        // DEF clamp(x: Integer): Integer DO
+        //     LET y = x;
+        //     IF y > 10 DO y = 10; END
+        //     RETURN y;
+        // END
+        // DEF main(): Integer DO LET total = 0; total = clamp(total + 25); RETURN total; END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                method("clamp", Arrays.asList("x"),
+                        new Ast.Statement.Declaration("y", Optional.of(access("x"))),
+                        new Ast.Statement.If(
+                                new Ast.Expression.Binary(">", access("y"), literal(10)),
+                                Arrays.asList(new Ast.Statement.Assignment(access("y"), literal(10))),
+                                Arrays.asList()
+                        ),
+                        new Ast.Statement.Return(access("y"))
+                ),
+                method("main", Arrays.asList(),
+                        new Ast.Statement.Declaration("total", Optional.of(literal(0))),
+                        new Ast.Statement.Assignment(access("total"), call("clamp", new Ast.Expression.Binary("+", access("total"), literal(25)))),
+                        new Ast.Statement.Return(access("total"))
+                )
+        ));
+        new Analyzer(new Scope(null)).visit(ast);
+        Inliner inliner = new Inliner();
+        Ast.Source rewritten = inliner.rewrite(ast);
+        Assertions.assertEquals(1, inliner.getInlined());
+        Assertions.assertEquals(String.join(System.lineSeparator(),
+                "public class Main {",
+                "",
+                "    public static void main(String[] args) {",
+                "        System.exit(new Main().main());",
+                "    }",
+                "",
+                "    int clamp(int x) {",
+                "        int y = x;",
+                "        if (y > 10) {",
+                "            y = 10;",
+                "        }",
+                "        return y;",
+                "    }",
+                "",
+                "    int main() {",
+                "        int total = 0;",
+                "        int $inl0_x = total + 25;",
+                "        int $inl0_y = $inl0_x;",
+                "        if ($inl0_y > 10) {",
+                "            $inl0_y = 10;",
+                "        }",
+                "        total = $inl0_y;",
+                "        return total;",
+                "    }",
+                "",
+                "}"
+        ), generate(rewritten));
+        Assertions.assertEquals(BigInteger.valueOf(10), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testNotInlined() {
+        // VAR limit: Integer = 5;
+        // DEF get(): Integer DO RETURN limit; END
+        // DEF count(n: Integer): Integer DO RETURN count(n); END
+        // DEF main(): Integer DO LET limit = 1; LET a = get(); RETURN a + count(0); END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("limit", "Integer", false, Optional.of(literal(5)))),
+                Arrays.asList(
+                        method("get", Arrays.asList(), new Ast.Statement.Return(access("limit"))),
+                        method("count", Arrays.asList("n"), new Ast.Statement.Return(call("count", access("n")))),
+                        method("main", Arrays.asList(),
+                                new Ast.Statement.Declaration("limit", Optional.of(literal(1))),
+                                new Ast.Statement.Declaration("a", Optional.of(call("get"))),
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+", access("a"), call("count", literal(0))))
+                        )
+                )
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        Inliner inliner = new Inliner();
+        inliner.rewrite(ast);
+        //get() would see the local limit, and count/1 is recursive
+        Assertions.assertEquals(0, inliner.getInlined());
+    }
+
+    private static String generate(Ast.Source ast) {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(ast);
+        return writer.toString();
+    }
+
+    private static Ast.Method method(String name, List<String> parameters, Ast.Statement... statements) {
+        List<String> types = new ArrayList<>();
+        parameters.forEach(parameter -> types.add("Integer"));
+        return new Ast.Method(name, parameters, types, Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Function call(String name, Ast.Expression... arguments) {
+        return new Ast.Expression.Function(Optional.empty(), name, Arrays.asList(arguments));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
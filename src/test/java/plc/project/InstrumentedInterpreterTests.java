@@ -0,0 +1,72 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+final class InstrumentedInterpreterTests {
+
+    private static final String INPUT = String.join("\n",
+            "DEF inc(x: Integer): Integer DO",
+            "    RETURN x + 1;",
+            "END",
+            "DEF main(): Integer DO",
+            "    LET i = 0;",
+            "    WHILE i < 10 DO",
+            "        i = inc(i);",
+            "    END",
+            "    RETURN i;",
+            "END"
+    );
+
+    @Test
+    void testCounters() throws ParseException {
+        Ast.Source ast = new Parser(new Lexer(INPUT).lex()).parseSource();
+        InstrumentedInterpreter interpreter = new InstrumentedInterpreter(null);
+        Assertions.assertEquals(BigInteger.valueOf(10), interpreter.visit(ast).getValue());
+        Assertions.assertEquals(1L, counter(interpreter, Ast.Statement.While.class, "WHILE").getCount());
+        Assertions.assertEquals(11L, counter(interpreter, Ast.Expression.Binary.class, "i < 10").getCount());
+        Assertions.assertEquals(10L, counter(interpreter, Ast.Statement.Assignment.class, "i = inc(i)").getCount());
+        Assertions.assertEquals(10L, counter(interpreter, Ast.Expression.Function.class, "inc(i)").getCount());
+        Assertions.assertEquals(10L, counter(interpreter, Ast.Expression.Binary.class, "x + 1").getCount());
+
+        InstrumentedInterpreter.Counter method = interpreter.getMethods().get("inc/1");
+        Assertions.assertEquals(10L, method.getCount());
+        Assertions.assertTrue(method.getTotalNanos() >= method.getSelfNanos());
+
+        List<InstrumentedInterpreter.Counter> hottest = interpreter.getHottest(3);
+        Assertions.assertEquals(3, hottest.size());
+        Assertions.assertTrue(hottest.get(0).getSelfNanos() >= hottest.get(2).getSelfNanos());
+    }
+
+    @Test
+    void testTailCall() {
+        // DEF helper(x) DO RETURN x + 1; END
+        // DEF main() DO RETURN helper(1); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("helper", Arrays.asList("x"), Arrays.asList(
+                        new Ast.Statement.Return(new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "x"), new Ast.Expression.Literal(BigInteger.ONE)))
+                )),
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "helper", Arrays.asList(new Ast.Expression.Literal(BigInteger.ONE))))
+                ))
+        ));
+        InstrumentedInterpreter interpreter = new InstrumentedInterpreter(null);
+        Assertions.assertEquals(BigInteger.valueOf(2), interpreter.visit(ast).getValue());
+        Assertions.assertEquals(1L, interpreter.getMethods().get("helper/1").getCount());
+    }
+
+    private static InstrumentedInterpreter.Counter counter(InstrumentedInterpreter interpreter, Class<? extends Ast> type, String text) {
+        for (InstrumentedInterpreter.Counter counter : interpreter.getCounters()) {
+            if (type.isInstance(counter.getNode()) && counter.getNode().getIndex() == INPUT.indexOf(text)) {
+                return counter;
+            }
+        }
+        throw new AssertionError("No counter for " + type.getSimpleName() + " at " + text);
+    }
+
+}
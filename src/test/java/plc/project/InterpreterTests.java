@@ -10,6 +10,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -240,6 +241,31 @@ final class InterpreterTests {
         Assertions.assertEquals(BigInteger.TEN, scope.lookupVariable("num").getValue().getValue());
     }
 
+    @Test
+    void testWhileDeclarationStatement() {
+        // WHILE num < 10 DO LET next = num + 1; num = next; END
+        Scope scope = new Scope(null);
+        scope.defineVariable("num", false, Environment.create(BigInteger.ZERO));
+        test(new Ast.Statement.While(
+                new Ast.Expression.Binary("<",
+                        new Ast.Expression.Access(Optional.empty(),"num"),
+                        new Ast.Expression.Literal(BigInteger.TEN)
+                ),
+                Arrays.asList(
+                        new Ast.Statement.Declaration("next", Optional.of(new Ast.Expression.Binary("+",
+                                new Ast.Expression.Access(Optional.empty(),"num"),
+                                new Ast.Expression.Literal(BigInteger.ONE)
+                        ))),
+                        new Ast.Statement.Assignment(
+                                new Ast.Expression.Access(Optional.empty(),"num"),
+                                new Ast.Expression.Access(Optional.empty(),"next")
+                        )
+                )
+        ),Environment.NIL.getValue(), scope);
+        Assertions.assertEquals(BigInteger.TEN, scope.lookupVariable("num").getValue().getValue());
+        Assertions.assertThrows(RuntimeException.class, () -> scope.lookupVariable("next"));
+    }
+
     @ParameterizedTest
     @MethodSource
     void testLiteralExpression(String test, Ast ast, Object expected) {
@@ -395,6 +421,203 @@ final class InterpreterTests {
         );
     }
 
+    @Test
+    void testMethodCallCache() {
+        // object.method(), evaluated against objects sharing a method scope
+        Scope type = new Scope(null);
+        type.defineFunction("method", 1, args -> Environment.create("type.method " + args.get(0).getValue()));
+        Scope first = new Scope(type);
+        Scope second = new Scope(type);
+        Scope scope = new Scope(null);
+        Environment.Variable object = scope.defineVariable("object", "object", Environment.Type.ANY, false, new Environment.PlcObject(first, "first"));
+        Ast.Expression.Function ast = new Ast.Expression.Function(Optional.of(new Ast.Expression.Access(Optional.empty(), "object")), "method", Arrays.asList());
+        Interpreter interpreter = new Interpreter(scope);
+        Assertions.assertEquals("type.method first", interpreter.visit(ast).getValue());
+        object.setValue(new Environment.PlcObject(second, "second"));
+        Assertions.assertEquals("type.method second", interpreter.visit(ast).getValue());
+        second.defineFunction("method", 1, args -> Environment.create("second.method"));
+        Assertions.assertEquals("second.method", interpreter.visit(ast).getValue());
+        object.setValue(Environment.create("plain"));
+        Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(ast));
+    }
+
+    @Test
+    void testFunctionCallCache() {
+        // function(), redefined closer to the call site and overloaded by arity
+        Scope scope = new Scope(null);
+        scope.defineFunction("function", 0, args -> Environment.create("parent"));
+        scope.defineFunction("function", 2, args -> Environment.create("parent/2"));
+        Ast.Expression.Function ast = new Ast.Expression.Function(Optional.empty(), "function", Arrays.asList());
+        Interpreter interpreter = new Interpreter(scope);
+        Assertions.assertEquals("parent", interpreter.visit(ast).getValue());
+        interpreter.getScope().defineFunction("function", 0, args -> Environment.create("child"));
+        Assertions.assertEquals("child", interpreter.visit(ast).getValue());
+        Assertions.assertEquals("parent/2", interpreter.visit(new Ast.Expression.Function(Optional.empty(), "function", Arrays.asList(
+                new Ast.Expression.Literal(BigInteger.ONE), new Ast.Expression.Literal(BigInteger.TEN)
+        ))).getValue());
+        Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(new Ast.Expression.Function(Optional.empty(), "function", Arrays.asList(
+                new Ast.Expression.Literal(BigInteger.ONE)
+        ))));
+    }
+
+    @Test
+    void testCallCacheShadowing() {
+        // function(), shadowed in a scope between the call site and its definition
+        Scope global = new Scope(null);
+        global.defineFunction("function", 0, args -> Environment.create("global"));
+        Scope middle = new Scope(global);
+        middle.defineFunction("other", 0, args -> Environment.NIL);
+        Ast.Expression.Function ast = new Ast.Expression.Function(Optional.empty(), "function", Arrays.asList());
+        Interpreter interpreter = new Interpreter(middle);
+        Assertions.assertEquals("global", interpreter.visit(ast).getValue());
+        //definitions in unrelated scopes leave the entry valid
+        new Interpreter(global).getScope().defineFunction("function", 0, args -> Environment.create("unrelated"));
+        Assertions.assertEquals("global", interpreter.visit(ast).getValue());
+        middle.defineFunction("function", 0, args -> Environment.create("middle"));
+        Assertions.assertEquals("middle", interpreter.visit(ast).getValue());
+    }
+
+    @Test
+    void testTailCall() {
+        // DEF sum(n, acc) DO IF n == 0 DO RETURN acc; END RETURN sum(n - 1, acc + n); END
+        // DEF main() DO RETURN sum(200000, 0); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("sum", Arrays.asList("n", "acc"), Arrays.asList(
+                        new Ast.Statement.If(
+                                new Ast.Expression.Binary("==", new Ast.Expression.Access(Optional.empty(), "n"), new Ast.Expression.Literal(BigInteger.ZERO)),
+                                Arrays.asList(new Ast.Statement.Return(new Ast.Expression.Access(Optional.empty(), "acc"))),
+                                Arrays.asList()
+                        ),
+                        new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "sum", Arrays.asList(
+                                new Ast.Expression.Binary("-", new Ast.Expression.Access(Optional.empty(), "n"), new Ast.Expression.Literal(BigInteger.ONE)),
+                                new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "acc"), new Ast.Expression.Access(Optional.empty(), "n"))
+                        )))
+                )),
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "sum", Arrays.asList(
+                                new Ast.Expression.Literal(BigInteger.valueOf(200000)),
+                                new Ast.Expression.Literal(BigInteger.ZERO)
+                        )))
+                ))
+        ));
+        test(ast, BigInteger.valueOf(20000100000L), new Scope(null));
+    }
+
+    @Test
+    void testMemoization() {
+        // LET calls = 0;
+        // DEF fib(n) DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END
+        // DEF count() DO calls = calls + 1; RETURN calls; END
+        // DEF main() DO count(); count(); RETURN fib(60); END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("calls", false, Optional.of(new Ast.Expression.Literal(BigInteger.ZERO)))),
+                Arrays.asList(
+                        new Ast.Method("fib", Arrays.asList("n"), Arrays.asList(
+                                new Ast.Statement.If(
+                                        new Ast.Expression.Binary("<", new Ast.Expression.Access(Optional.empty(), "n"), new Ast.Expression.Literal(BigInteger.valueOf(2))),
+                                        Arrays.asList(new Ast.Statement.Return(new Ast.Expression.Access(Optional.empty(), "n"))),
+                                        Arrays.asList()
+                                ),
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                        new Ast.Expression.Function(Optional.empty(), "fib", Arrays.asList(
+                                                new Ast.Expression.Binary("-", new Ast.Expression.Access(Optional.empty(), "n"), new Ast.Expression.Literal(BigInteger.ONE))
+                                        )),
+                                        new Ast.Expression.Function(Optional.empty(), "fib", Arrays.asList(
+                                                new Ast.Expression.Binary("-", new Ast.Expression.Access(Optional.empty(), "n"), new Ast.Expression.Literal(BigInteger.valueOf(2)))
+                                        ))
+                                ))
+                        )),
+                        new Ast.Method("count", Arrays.asList(), Arrays.asList(
+                                new Ast.Statement.Assignment(
+                                        new Ast.Expression.Access(Optional.empty(), "calls"),
+                                        new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "calls"), new Ast.Expression.Literal(BigInteger.ONE))
+                                ),
+                                new Ast.Statement.Return(new Ast.Expression.Access(Optional.empty(), "calls"))
+                        )),
+                        new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                                new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "count", Arrays.asList())),
+                                new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "count", Arrays.asList())),
+                                new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "fib", Arrays.asList(
+                                        new Ast.Expression.Literal(BigInteger.valueOf(60))
+                                )))
+                        ))
+                )
+        );
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.enableMemoization(100);
+        Assertions.assertEquals(new BigInteger("1548008755920"), interpreter.visit(ast).getValue());
+        Assertions.assertEquals(BigInteger.valueOf(2), interpreter.getScope().lookupVariable("calls").getValue().getValue());
+        Assertions.assertEquals(61, interpreter.getMemos().get("fib/1").getMisses());
+        Assertions.assertEquals(58, interpreter.getMemos().get("fib/1").getHits());
+        Assertions.assertFalse(interpreter.getMemos().containsKey("count/0"));
+    }
+
+    @Test
+    void testFuel() {
+        // DEF main() DO LET i = 0; WHILE i < 3 DO i = i + 1; END RETURN i; END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Declaration("i", Optional.of(new Ast.Expression.Literal(BigInteger.ZERO))),
+                        new Ast.Statement.While(
+                                new Ast.Expression.Binary("<", new Ast.Expression.Access(Optional.empty(), "i"), new Ast.Expression.Literal(BigInteger.valueOf(3))),
+                                Arrays.asList(new Ast.Statement.Assignment(
+                                        new Ast.Expression.Access(Optional.empty(), "i"),
+                                        new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "i"), new Ast.Expression.Literal(BigInteger.ONE))
+                                ))
+                        ),
+                        new Ast.Statement.Return(new Ast.Expression.Access(Optional.empty(), "i"))
+                ))
+        ));
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setFuel(100);
+        Assertions.assertEquals(BigInteger.valueOf(3), interpreter.visit(ast).getValue());
+        //3 top-level statements, 3 loop body statements and 3 iterations
+        Assertions.assertEquals(91, interpreter.getFuel());
+    }
+
+    @Test
+    void testTailCallLimits() {
+        // DEF main(): Integer DO RETURN main(); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "main", Arrays.asList()))
+                ))
+        ));
+        Interpreter fuel = new Interpreter(new Scope(null));
+        fuel.setFuel(1000);
+        Assertions.assertEquals(ExecutionLimitException.Limit.FUEL, Assertions.assertThrows(ExecutionLimitException.class, () -> fuel.visit(ast)).getLimit());
+
+        Interpreter deadline = new Interpreter(new Scope(null));
+        deadline.setDeadline(Duration.ofMillis(50));
+        Assertions.assertEquals(ExecutionLimitException.Limit.DEADLINE, Assertions.assertThrows(ExecutionLimitException.class, () -> deadline.visit(ast)).getLimit());
+    }
+
+    @Test
+    void testExecutionLimits() {
+        // DEF main() DO LET s = ""; WHILE TRUE DO s = s + "x"; END END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        new Ast.Statement.Declaration("s", Optional.of(new Ast.Expression.Literal(""))),
+                        new Ast.Statement.While(new Ast.Expression.Literal(true), Arrays.asList(new Ast.Statement.Assignment(
+                                new Ast.Expression.Access(Optional.empty(), "s"),
+                                new Ast.Expression.Binary("+", new Ast.Expression.Access(Optional.empty(), "s"), new Ast.Expression.Literal("x"))
+                        )))
+                ))
+        ));
+        Interpreter fuel = new Interpreter(new Scope(null));
+        fuel.setFuel(1000);
+        Assertions.assertEquals(ExecutionLimitException.Limit.FUEL, Assertions.assertThrows(ExecutionLimitException.class, () -> fuel.visit(ast)).getLimit());
+
+        Interpreter deadline = new Interpreter(new Scope(null));
+        deadline.setDeadline(Duration.ofMillis(50));
+        deadline.setAllocationLimit(Long.MAX_VALUE);
+        Assertions.assertEquals(ExecutionLimitException.Limit.DEADLINE, Assertions.assertThrows(ExecutionLimitException.class, () -> deadline.visit(ast)).getLimit());
+
+        Interpreter allocation = new Interpreter(new Scope(null));
+        allocation.setAllocationLimit(1 << 20);
+        Assertions.assertEquals(ExecutionLimitException.Limit.ALLOCATION, Assertions.assertThrows(ExecutionLimitException.class, () -> allocation.visit(ast)).getLimit());
+    }
+
     private static Scope test(Ast ast, Object expected, Scope scope) {
         Interpreter interpreter = new Interpreter(scope);
         if (expected != null) {
@@ -0,0 +1,167 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+
+final class LoopInvariantMotionTests {
+
+    @Test
+    void testWhile() {
+        // DEF main(): Integer DO
+        //     LET n = 10; LET k = 3; LET total = 0; LET i = 0;
+        //     WHILE i < n * 2 DO
+        //         total = total + k * k + i;
+        //         i = i + 1;
+        //     END
+        //     RETURN total;
+        // END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(method(
+                new Ast.Statement.Declaration("n", Optional.of(literal(10))),
+                new Ast.Statement.Declaration("k", Optional.of(literal(3))),
+                new Ast.Statement.Declaration("total", Optional.of(literal(0))),
+                new Ast.Statement.Declaration("i", Optional.of(literal(0))),
+                new Ast.Statement.While(
+                        new Ast.Expression.Binary("<", access("i"), new Ast.Expression.Binary("*", access("n"), literal(2))),
+                        Arrays.asList(
+                                new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+",
+                                        new Ast.Expression.Binary("+", access("total"), new Ast.Expression.Binary("*", access("k"), access("k"))),
+                                        access("i")
+                                )),
+                                new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                        )
+                ),
+                new Ast.Statement.Return(access("total"))
+        )));
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new LoopInvariantMotion().rewrite(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(rewritten);
+        Assertions.assertEquals(String.join(System.lineSeparator(),
+                "public class Main {",
+                "",
+                "    public static void main(String[] args) {",
+                "        System.exit(new Main().main());",
+                "    }",
+                "",
+                "    int main() {",
+                "        int n = 10;",
+                "        int k = 3;",
+                "        int total = 0;",
+                "        int i = 0;",
+                "        int $licm0 = n * 2;",
+                "        int $licm1 = k * k;",
+                "        while (i < $licm0) {",
+                "            total = total + $licm1 + i;",
+                "            i = i + 1;",
+                "        }",
+                "        return total;",
+                "    }",
+                "",
+                "}"
+        ), writer.toString());
+        Assertions.assertEquals(BigInteger.valueOf(370), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testFor() {
+        // VAR scale: Integer = 2;
+        // DEF main(): Integer DO
+        //     LET m = 4; LET total = 0;
+        //     FOR (i = 0; i < 3; i = i + 1)
+        //         total = total + scale * 2 + m * m + i;
+        //         print(total);
+        //     END
+        //     RETURN total;
+        // END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("scale", "Integer", false, Optional.of(literal(2)))),
+                Arrays.asList(method(
+                        new Ast.Statement.Declaration("m", Optional.of(literal(4))),
+                        new Ast.Statement.Declaration("total", Optional.of(literal(0))),
+                        new Ast.Statement.Declaration("i", Optional.of(literal(0))),
+                        new Ast.Statement.For(
+                                new Ast.Statement.Assignment(access("i"), literal(0)),
+                                new Ast.Expression.Binary("<", access("i"), literal(3)),
+                                new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1))),
+                                Arrays.asList(
+                                        new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+",
+                                                new Ast.Expression.Binary("+",
+                                                        new Ast.Expression.Binary("+", access("total"), new Ast.Expression.Binary("*", access("scale"), literal(2))),
+                                                        new Ast.Expression.Binary("*", access("m"), access("m"))
+                                                ),
+                                                access("i")
+                                        )),
+                                        new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "print", Arrays.asList(access("total"))))
+                                )
+                        ),
+                        new Ast.Statement.Return(access("total"))
+                ))
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new LoopInvariantMotion().rewrite(ast);
+        //the field could be changed by the call to print, so only m * m is hoisted
+        Ast.Statement.Declaration hoisted = (Ast.Statement.Declaration) rewritten.getMethods().get(0).getStatements().get(3);
+        Assertions.assertEquals("$licm0", hoisted.getName());
+        Ast.Expression.Binary value = (Ast.Expression.Binary) hoisted.getValue().get();
+        Assertions.assertEquals("*", value.getOperator());
+        Assertions.assertEquals("m", ((Ast.Expression.Access) value.getLeft()).getName());
+        Assertions.assertEquals(6, rewritten.getMethods().get(0).getStatements().size());
+        Assertions.assertEquals(BigInteger.valueOf(63), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testNil() {
+        // DEF main(): Integer DO
+        //     LET x: Integer; LET total = 0; LET i = 0;
+        //     WHILE i < 1 DO
+        //         IF i == 0 || x + 1 > 0 DO total = total + 1; END
+        //         i = i + 1;
+        //     END
+        //     RETURN total;
+        // END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(method(
+                new Ast.Statement.Declaration("x", Optional.of("Integer"), Optional.empty()),
+                new Ast.Statement.Declaration("total", Optional.of(literal(0))),
+                new Ast.Statement.Declaration("i", Optional.of(literal(0))),
+                new Ast.Statement.While(
+                        new Ast.Expression.Binary("<", access("i"), literal(1)),
+                        Arrays.asList(
+                                new Ast.Statement.If(
+                                        new Ast.Expression.Binary("||",
+                                                new Ast.Expression.Binary("==", access("i"), literal(0)),
+                                                new Ast.Expression.Binary(">", new Ast.Expression.Binary("+", access("x"), literal(1)), literal(0))
+                                        ),
+                                        Arrays.asList(new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+", access("total"), literal(1)))),
+                                        Arrays.asList()
+                                ),
+                                new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                        )
+                ),
+                new Ast.Statement.Return(access("total"))
+        )));
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new LoopInvariantMotion().rewrite(ast);
+        //x is NIL and only read after the ||, so x + 1 > 0 must stay in the loop
+        Assertions.assertEquals(5, rewritten.getMethods().get(0).getStatements().size());
+        Assertions.assertEquals(BigInteger.ONE, ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    private static Ast.Method method(Ast.Statement... statements) {
+        return new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
@@ -0,0 +1,74 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+
+final class ParallelLoopTests {
+
+    private static final String INPUT = String.join("\n",
+            "DEF square(x: Integer): Integer DO",
+            "    RETURN x * x;",
+            "END",
+            "DEF main(): Integer DO",
+            "    LET sum = 0;",
+            "    LET product = 1;",
+            "    LET i = 0;",
+            "    FOR (i = 1; i <= 500; i = i + 1)",
+            "        LET s = square(i);",
+            "        IF s > 1000 DO",
+            "            sum = sum + s;",
+            "        ELSE",
+            "            product = product * i;",
+            "        END",
+            "    END",
+            "    RETURN sum + product + i;",
+            "END"
+    );
+
+    @Test
+    void testSameAsSequential() throws ParseException {
+        Ast.Source ast = new Parser(new Lexer(INPUT).lex()).parseSource();
+        Object expected = new Interpreter(new Scope(null)).visit(ast).getValue();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Interpreter interpreter = new Interpreter(new Scope(null));
+            interpreter.enableParallelLoops(pool);
+            Assertions.assertEquals(expected, interpreter.visit(ast).getValue());
+        } finally {
+            pool.shutdown();
+        }
+        //31! + the squares from 32 to 500 + the final i
+        BigInteger factorial = BigInteger.ONE;
+        BigInteger sum = BigInteger.ZERO;
+        for (int i = 1; i <= 500; i++) {
+            factorial = i * i > 1000 ? factorial : factorial.multiply(BigInteger.valueOf(i));
+            sum = i * i > 1000 ? sum.add(BigInteger.valueOf(i * i)) : sum;
+        }
+        Assertions.assertEquals(sum.add(factorial).add(BigInteger.valueOf(501)), expected);
+    }
+
+    @Test
+    void testAnalyze() throws ParseException {
+        Assertions.assertNotNull(analyze("sum = sum + i;"));
+        Assertions.assertNotNull(analyze("LET x = i; x = x * 2; sum = sum + x;"));
+        //writes a variable the next iteration reads
+        Assertions.assertNull(analyze("last = i;"));
+        Assertions.assertNull(analyze("sum = sum + i; last = sum;"));
+        Assertions.assertNull(analyze("i = i + 1;"));
+        Assertions.assertNull(analyze("print(i);"));
+        Assertions.assertNull(analyze("sum = sum - i;"));
+        Assertions.assertNull(analyze("RETURN i;"));
+        //the declaration is only visible inside the IF
+        Assertions.assertNull(analyze("IF i > 1 DO LET x = 1; END x = i;"));
+    }
+
+    private static ParallelLoop analyze(String body) throws ParseException {
+        String input = "DEF main() DO FOR (i = 0; i < n; i = i + 1) " + body + " END END";
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        return ParallelLoop.analyze((Ast.Statement.For) ast.getMethods().get(0).getStatements().get(0), call -> false);
+    }
+
+}
@@ -0,0 +1,81 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class PrintSinkTests {
+
+    private static final String INPUT = String.join("\n",
+            "LET answer: Integer = 42;",
+            "DEF main(): Integer DO",
+            "    print(answer);",
+            "    print(answer > 0);",
+            "    RETURN 0;",
+            "END"
+    );
+
+    @Test
+    void testInterpreter() throws ParseException {
+        Ast.Source ast = new Parser(new Lexer(INPUT).lex()).parseSource();
+        PrintSink.Collector sink = new PrintSink.Collector();
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setSink(sink);
+        interpreter.visit(ast);
+        Assertions.assertEquals(Arrays.asList("42", "true"), sink.getLines());
+    }
+
+    @Test
+    void testProgramImage() throws ParseException {
+        ProgramImage image = new ProgramImage(new Parser(new Lexer(INPUT).lex()).parseSource(), null);
+        PrintSink.Collector first = new PrintSink.Collector();
+        PrintSink.Collector second = new PrintSink.Collector();
+        for (PrintSink.Collector sink : Arrays.asList(first, second)) {
+            Interpreter interpreter = Interpreter.of(image);
+            interpreter.setSink(sink);
+            interpreter.execute();
+        }
+        Assertions.assertEquals(Arrays.asList("42", "true"), first.getLines());
+        Assertions.assertEquals(first.getLines(), second.getLines());
+    }
+
+    @Test
+    void testBuffered() {
+        List<Integer> flushed = new ArrayList<>();
+        StringWriter writer = new StringWriter() {
+            @Override
+            public void flush() {
+                flushed.add(getBuffer().length());
+            }
+        };
+        PrintSink sink = new PrintSink.Buffered(writer, 2);
+        sink.print("a");
+        sink.print("b");
+        sink.print("c");
+        Assertions.assertEquals(1, flushed.size());
+        sink.flush();
+        Assertions.assertEquals(2, flushed.size());
+        String separator = System.lineSeparator();
+        Assertions.assertEquals("a" + separator + "b" + separator + "c" + separator, writer.toString());
+    }
+
+    @Test
+    void testAsync() {
+        PrintSink.Collector target = new PrintSink.Collector();
+        List<String> expected = new ArrayList<>();
+        PrintSink.Async sink = new PrintSink.Async(target, 16);
+        for (int i = 0; i < 10000; i++) {
+            sink.print(Integer.toString(i));
+            expected.add(Integer.toString(i));
+        }
+        sink.flush();
+        Assertions.assertEquals(expected, target.getLines());
+        sink.close();
+        Assertions.assertThrows(IllegalStateException.class, () -> sink.print("closed"));
+    }
+
+}
@@ -0,0 +1,102 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+final class ProfilerTests {
+
+    @Test
+    void testSample() throws Exception {
+        // DEF spin(n) DO
+        //     LET i = 0;
+        //     WHILE i < n DO probe(); i = i + 1; END
+        //     RETURN i;
+        // END
+        // DEF main() DO LET r = spin(3); RETURN r; END
+        //statements are reported by source index, as if parsed
+        Ast.Statement probe = new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "probe", Arrays.asList()));
+        probe.setIndex(23);
+        Ast.Statement call = new Ast.Statement.Declaration("r", Optional.of(new Ast.Expression.Function(Optional.empty(), "spin", Arrays.asList(literal(3)))));
+        call.setIndex(52);
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("spin", Arrays.asList("n"), Arrays.asList(
+                        new Ast.Statement.Declaration("i", Optional.of(literal(0))),
+                        new Ast.Statement.While(
+                                new Ast.Expression.Binary("<", access("i"), access("n")),
+                                Arrays.asList(
+                                        probe,
+                                        new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                                )
+                        ),
+                        new Ast.Statement.Return(access("i"))
+                )),
+                new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                        call,
+                        new Ast.Statement.Return(access("r"))
+                ))
+        ));
+        Profiler profiler = new Profiler(Duration.ofMillis(1));
+        Scope scope = new Scope(null);
+        //samples from inside the program, so the stack is known
+        scope.defineFunction("probe", 0, args -> {
+            profiler.sample();
+            return Environment.NIL;
+        });
+        Interpreter interpreter = new Interpreter(scope);
+        interpreter.enableProfiling(profiler);
+        Assertions.assertEquals(BigInteger.valueOf(3), interpreter.visit(ast).getValue());
+        profiler.sample();
+        Assertions.assertEquals(Map.of("main/0:52;spin/1:23", 3L), profiler.getSamples());
+        Assertions.assertEquals(Map.of("spin/1", Duration.ofMillis(3)), profiler.getSelfTimes());
+        Assertions.assertEquals(Map.of("main/0", Duration.ofMillis(3), "spin/1", Duration.ofMillis(3)), profiler.getTotalTimes());
+        StringWriter writer = new StringWriter();
+        profiler.writeCollapsed(writer);
+        Assertions.assertEquals("main/0:52;spin/1:23 3" + System.lineSeparator(), writer.toString());
+    }
+
+    @Test
+    void testStartStop() {
+        try (Profiler profiler = new Profiler(Duration.ofMillis(1))) {
+            profiler.start();
+            Assertions.assertThrows(IllegalStateException.class, profiler::start);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Profiler(Duration.ZERO));
+    }
+
+    @Test
+    void testOutsideMethod() {
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.enableProfiling(new Profiler(Duration.ofMillis(1)));
+        interpreter.visit(new Ast.Statement.If(new Ast.Expression.Literal(true), Arrays.asList(new Ast.Statement.Expression(literal(1))), Arrays.asList()));
+    }
+
+    @Test
+    void testReleasesStacks() throws InterruptedException {
+        Profiler profiler = new Profiler(Duration.ofMillis(1));
+        WeakReference<Profiler.Stack> stack = new WeakReference<>(profiler.register());
+        for (int i = 0; i < 10 && stack.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(stack.get());
+        profiler.sample();
+        Assertions.assertTrue(profiler.getSamples().isEmpty());
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
@@ -0,0 +1,116 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class ProgramImageTests {
+
+    // LET count = 0;
+    // LET CONST base = 10;
+    // LET CONST twice = base * 2;
+    // DEF bump(n) DO count = count + n; RETURN count; END
+    // DEF main() DO LET i = 0; WHILE i < 100 DO bump(1); i = i + 1; END RETURN count + twice; END
+    private static final Ast.Source SOURCE = new Ast.Source(
+            Arrays.asList(
+                    new Ast.Field("count", false, Optional.of(literal(0))),
+                    new Ast.Field("base", true, Optional.of(literal(10))),
+                    new Ast.Field("twice", true, Optional.of(new Ast.Expression.Binary("*", access("base"), literal(2))))
+            ),
+            Arrays.asList(
+                    new Ast.Method("bump", Arrays.asList("n"), Arrays.asList(
+                            new Ast.Statement.Assignment(access("count"), new Ast.Expression.Binary("+", access("count"), access("n"))),
+                            new Ast.Statement.Return(access("count"))
+                    )),
+                    new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                            new Ast.Statement.Declaration("i", Optional.of(literal(0))),
+                            new Ast.Statement.While(
+                                    new Ast.Expression.Binary("<", access("i"), literal(100)),
+                                    Arrays.asList(
+                                            new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "bump", Arrays.asList(literal(1)))),
+                                            new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                                    )
+                            ),
+                            new Ast.Statement.Return(new Ast.Expression.Binary("+", access("count"), access("twice")))
+                    ))
+            )
+    );
+
+    @Test
+    void testImage() {
+        ProgramImage image = new ProgramImage(SOURCE, null);
+        Assertions.assertEquals(BigInteger.valueOf(20), image.getScope().lookupVariable("twice").getValue().getValue());
+        Assertions.assertEquals(1, image.getFields().size());
+        Assertions.assertEquals(BigInteger.valueOf(120), image.execute().getValue());
+        //each execution starts from its own fields
+        Interpreter interpreter = Interpreter.of(image);
+        Assertions.assertEquals(BigInteger.valueOf(120), interpreter.execute().getValue());
+        Assertions.assertEquals(BigInteger.valueOf(101), interpreter.call("bump", Arrays.asList(Environment.create(BigInteger.ONE))).getValue());
+        Assertions.assertThrows(IllegalStateException.class, () -> new Interpreter(new Scope(null)).execute());
+        Assertions.assertThrows(IllegalStateException.class, () -> interpreter.enableMemoization(16));
+    }
+
+    @Test
+    void testForwardReference() {
+        // LET early = late + 1;
+        // LET CONST late = 2;
+        // DEF main() DO RETURN early; END
+        Ast.Source source = new Ast.Source(
+                Arrays.asList(
+                        new Ast.Field("early", false, Optional.of(new Ast.Expression.Binary("+", access("late"), literal(1)))),
+                        new Ast.Field("late", true, Optional.of(literal(2)))
+                ),
+                Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(new Ast.Statement.Return(access("early")))))
+        );
+        //late is not defined yet when early is evaluated, with or without an image
+        Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(source));
+        ProgramImage image = new ProgramImage(source, null);
+        Assertions.assertEquals(2, image.getFields().size());
+        Assertions.assertThrows(RuntimeException.class, image::execute);
+    }
+
+    @Test
+    void testConcurrentExecutions() throws Exception {
+        ProgramImage image = new ProgramImage(SOURCE, null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Environment.PlcObject>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(image::execute));
+            }
+            for (Future<Environment.PlcObject> result : results) {
+                Assertions.assertEquals(BigInteger.valueOf(120), result.get().getValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testNullParent() {
+        //interpreters for images come from a factory, so a null parent scope is not ambiguous
+        Assertions.assertNull(new Interpreter(null).getScope().getParent());
+    }
+
+    @Test
+    void testMissingMain() {
+        Assertions.assertThrows(RuntimeException.class, () -> new ProgramImage(new Ast.Source(Arrays.asList(), Arrays.asList()), null));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
@@ -0,0 +1,94 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+final class PurityAnalyzerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testMethod(String test, List<Ast.Field> fields, Ast.Method method, boolean expected) {
+        Ast.Source ast = new Ast.Source(fields, Arrays.asList(method));
+        Assertions.assertEquals(expected, PurityAnalyzer.analyze(ast).contains(method));
+    }
+
+    private static Stream<Arguments> testMethod() {
+        return Stream.of(
+                // DEF f(n) DO LET x = n + 1; x = x * 2; RETURN x; END
+                Arguments.of("Locals", Arrays.asList(),
+                        method(
+                                new Ast.Statement.Declaration("x", Optional.of(new Ast.Expression.Binary("+", access("n"), literal(1)))),
+                                new Ast.Statement.Assignment(access("x"), new Ast.Expression.Binary("*", access("x"), literal(2))),
+                                new Ast.Statement.Return(access("x"))
+                        ),
+                        true
+                ),
+                // DEF f(n) DO IF n < 2 DO RETURN n; END RETURN f(n - 1) + f(n - 2); END
+                Arguments.of("Recursion", Arrays.asList(),
+                        method(
+                                new Ast.Statement.If(
+                                        new Ast.Expression.Binary("<", access("n"), literal(2)),
+                                        Arrays.asList(new Ast.Statement.Return(access("n"))),
+                                        Arrays.asList()
+                                ),
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                        call("f", new Ast.Expression.Binary("-", access("n"), literal(1))),
+                                        call("f", new Ast.Expression.Binary("-", access("n"), literal(2)))
+                                ))
+                        ),
+                        true
+                ),
+                // LET CONST rate = 2; DEF f(n) DO RETURN n * rate; END
+                Arguments.of("Constant Field", Arrays.asList(new Ast.Field("rate", true, Optional.of(literal(2)))),
+                        method(new Ast.Statement.Return(new Ast.Expression.Binary("*", access("n"), access("rate")))),
+                        true
+                ),
+                // LET rate = 2; DEF f(n) DO RETURN n * rate; END
+                Arguments.of("Mutable Field", Arrays.asList(new Ast.Field("rate", false, Optional.of(literal(2)))),
+                        method(new Ast.Statement.Return(new Ast.Expression.Binary("*", access("n"), access("rate")))),
+                        false
+                ),
+                // LET count = 0; DEF f(n) DO count = n; RETURN n; END
+                Arguments.of("Field Assignment", Arrays.asList(new Ast.Field("count", false, Optional.of(literal(0)))),
+                        method(
+                                new Ast.Statement.Assignment(access("count"), access("n")),
+                                new Ast.Statement.Return(access("n"))
+                        ),
+                        false
+                ),
+                // DEF f(n) DO print(n); RETURN n; END
+                Arguments.of("Print", Arrays.asList(),
+                        method(
+                                new Ast.Statement.Expression(call("print", access("n"))),
+                                new Ast.Statement.Return(access("n"))
+                        ),
+                        false
+                )
+        );
+    }
+
+    private static Ast.Method method(Ast.Statement... statements) {
+        return new Ast.Method("f", Arrays.asList("n"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+    private static Ast.Expression.Function call(String name, Ast.Expression... arguments) {
+        return new Ast.Expression.Function(Optional.empty(), name, Arrays.asList(arguments));
+    }
+
+}
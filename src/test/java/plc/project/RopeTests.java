@@ -0,0 +1,88 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+
+final class RopeTests {
+
+    @Test
+    void testShort() {
+        Assertions.assertEquals("ab", Rope.concat("a", "b"));
+    }
+
+    @Test
+    void testFlatten() {
+        Object rope = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            rope = Rope.concat(rope, Integer.toString(i % 10));
+            expected.append(i % 10);
+        }
+        Assertions.assertTrue(rope instanceof Rope);
+        //deep ropes flatten without recursion
+        Assertions.assertEquals(expected.toString(), rope.toString());
+        Assertions.assertSame(rope.toString(), rope.toString());
+    }
+
+    @Test
+    void testFlattenedPart() {
+        Object left = Rope.concat("x".repeat(40), "y".repeat(40));
+        Assertions.assertEquals(80, left.toString().length());
+        Object rope = Rope.concat(left, "z".repeat(40));
+        Assertions.assertEquals("x".repeat(40) + "y".repeat(40) + "z".repeat(40), rope.toString());
+    }
+
+    @Test
+    void testDropsParts() throws InterruptedException {
+        Object left = Rope.concat("x".repeat(40), "y".repeat(40));
+        WeakReference<String> flat = new WeakReference<>(left.toString());
+        Object rope = Rope.concat(left, "z");
+        Assertions.assertEquals(81, rope.toString().length());
+        //the flattened rope no longer keeps left, or the string it flattened to
+        left = null;
+        for (int i = 0; i < 10 && flat.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(flat.get());
+        Assertions.assertEquals(81, rope.toString().length());
+    }
+
+    @Test
+    void testInterpreterLoop() {
+        // LET s = ""; LET i = 0; WHILE i < 50000 DO s = s + "ab"; i = i + 1; END
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.visit(new Ast.Statement.Declaration("s", Optional.of(new Ast.Expression.Literal(""))));
+        interpreter.visit(new Ast.Statement.Declaration("i", Optional.of(new Ast.Expression.Literal(BigInteger.ZERO))));
+        interpreter.visit(new Ast.Statement.While(
+                new Ast.Expression.Binary("<", access("i"), new Ast.Expression.Literal(BigInteger.valueOf(50000))),
+                Arrays.asList(
+                        new Ast.Statement.Assignment(access("s"), new Ast.Expression.Binary("+", access("s"), new Ast.Expression.Literal("ab"))),
+                        new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), new Ast.Expression.Literal(BigInteger.ONE)))
+                )
+        ));
+        Environment.PlcObject value = interpreter.getScope().lookupVariable("s").getValue();
+        Assertions.assertEquals("ab".repeat(50000), value.getValue());
+        Environment.PlcObject equal = interpreter.visit(new Ast.Expression.Binary("==", access("s"), new Ast.Expression.Literal("ab".repeat(50000))));
+        Assertions.assertEquals(true, equal.getValue());
+    }
+
+    @Test
+    void testMismatchedTypes() {
+        Ast.Expression.Binary ast = new Ast.Expression.Binary("+",
+                new Ast.Expression.Literal("a"),
+                new Ast.Expression.Literal(BigInteger.ONE)
+        );
+        Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(ast));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
@@ -0,0 +1,94 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class SchedulerTests {
+
+    // LET n: Integer = ...;
+    // DEF main(): Integer DO LET i = 0; WHILE i < n DO i = i + 1; END RETURN i; END
+    private static Ast.Source count(int n) {
+        return new Ast.Source(
+                Arrays.asList(new Ast.Field("n", "Integer", false, Optional.of(new Ast.Expression.Literal(BigInteger.valueOf(n))))),
+                Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                        new Ast.Statement.Declaration("i", Optional.of(new Ast.Expression.Literal(BigInteger.ZERO))),
+                        new Ast.Statement.While(
+                                new Ast.Expression.Binary("<", access("i"), access("n")),
+                                Arrays.asList(new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), new Ast.Expression.Literal(BigInteger.ONE))))
+                        ),
+                        new Ast.Statement.Return(access("i"))
+                )))
+        );
+    }
+
+    @Test
+    void testTimeSlicing() throws Exception {
+        VirtualMachine.Program program = VirtualMachine.compile(count(1000));
+        List<CompletableFuture<Environment.PlcObject>> results = new ArrayList<>();
+        try (Scheduler scheduler = new Scheduler(2, 100)) {
+            for (int i = 0; i < 200; i++) {
+                results.add(scheduler.submit(new VirtualMachine(program, new Scope(null)).start()));
+            }
+            for (CompletableFuture<Environment.PlcObject> result : results) {
+                Assertions.assertEquals(BigInteger.valueOf(1000), result.get().getValue());
+            }
+            //each program takes about 10 slices of 100 steps
+            Assertions.assertTrue(scheduler.getSlices() >= 2000);
+        }
+    }
+
+    @Test
+    void testNoStarvation() throws Exception {
+        // DEF main() DO WHILE TRUE DO END END
+        Ast.Source forever = new Ast.Source(Arrays.asList(), Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.empty(), Arrays.asList(
+                new Ast.Statement.While(new Ast.Expression.Literal(Boolean.TRUE), Arrays.asList())
+        ))));
+        CompletableFuture<Environment.PlcObject> endless;
+        try (Scheduler scheduler = new Scheduler(1, 1000)) {
+            endless = scheduler.submit(new VirtualMachine(VirtualMachine.compile(forever), new Scope(null)).start());
+            CompletableFuture<Environment.PlcObject> result = scheduler.submit(new VirtualMachine(VirtualMachine.compile(count(5000)), new Scope(null)).start());
+            Assertions.assertEquals(BigInteger.valueOf(5000), result.get().getValue());
+            Assertions.assertFalse(endless.isDone());
+        }
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, endless::get);
+        Assertions.assertTrue(exception.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void testError() throws Exception {
+        // DEF main(): Integer DO fail(); RETURN 1; END
+        Ast.Source source = new Ast.Source(Arrays.asList(), Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "fail", Arrays.asList())),
+                new Ast.Statement.Return(new Ast.Expression.Literal(BigInteger.ONE))
+        ))));
+        AtomicInteger calls = new AtomicInteger();
+        Scope scope = new Scope(null);
+        scope.defineFunction("fail", 0, args -> {
+            calls.incrementAndGet();
+            throw new AssertionError("failed");
+        });
+        VirtualMachine.Continuation continuation = new VirtualMachine(VirtualMachine.compile(source), scope).start();
+        try (Scheduler scheduler = new Scheduler(1, 100)) {
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, () -> scheduler.submit(continuation).get());
+            Assertions.assertTrue(exception.getCause() instanceof AssertionError);
+        }
+        //the failed execution is not run again
+        Assertions.assertThrows(AssertionError.class, () -> continuation.resume(100));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
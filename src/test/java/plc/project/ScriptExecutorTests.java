@@ -0,0 +1,109 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+final class ScriptExecutorTests {
+
+    // DEF main() DO RETURN x * 2; END
+    private static final ProgramImage DOUBLE = image(new Ast.Statement.Return(
+            new Ast.Expression.Binary("*", new Ast.Expression.Access(Optional.empty(), "x"), new Ast.Expression.Literal(BigInteger.valueOf(2)))
+    ));
+
+    // DEF main() DO WHILE TRUE DO END END
+    private static final ProgramImage LOOP = image(new Ast.Statement.While(
+            new Ast.Expression.Literal(Boolean.TRUE), Arrays.asList()
+    ));
+
+    @Test
+    void testSubmit() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor(16)) {
+            List<CompletableFuture<Environment.PlcObject>> results = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                results.add(executor.submit(DOUBLE, Map.of("x", BigInteger.valueOf(i))));
+            }
+            for (int i = 0; i < 500; i++) {
+                Assertions.assertEquals(BigInteger.valueOf(2 * i), results.get(i).get().getValue());
+            }
+            Assertions.assertEquals(500, executor.getCompleted());
+            Assertions.assertEquals(500, executor.getLatencies().getCount());
+            Assertions.assertTrue(executor.getLatencies().getPercentile(0.5).compareTo(executor.getLatencies().getPercentile(1)) <= 0);
+        }
+    }
+
+    @Test
+    void testLimits() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor(4)) {
+            CompletableFuture<Environment.PlcObject> fuel = executor.submit(LOOP, Map.of(), 10000, null);
+            CompletableFuture<Environment.PlcObject> timeout = executor.submit(LOOP, Map.of(), Long.MAX_VALUE, Duration.ofMillis(50));
+            Assertions.assertEquals(ExecutionLimitException.Limit.FUEL, limit(fuel));
+            Assertions.assertEquals(ExecutionLimitException.Limit.DEADLINE, limit(timeout));
+            Assertions.assertEquals(2, executor.getFailed());
+        }
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        try (ScriptExecutor executor = new ScriptExecutor(1)) {
+            CompletableFuture<Environment.PlcObject> running = executor.submit(LOOP, Map.of(), Long.MAX_VALUE, Duration.ofMillis(200));
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.trySubmit(DOUBLE, Map.of("x", BigInteger.ONE), Long.MAX_VALUE, null));
+            Assertions.assertEquals(1, executor.getRejected());
+            //waits for the running job to finish
+            Assertions.assertEquals(BigInteger.valueOf(2), executor.submit(DOUBLE, Map.of("x", BigInteger.ONE)).get().getValue());
+            Assertions.assertTrue(running.isDone());
+        }
+    }
+
+    @Test
+    void testError() throws Exception {
+        // DEF main() DO fail(); END
+        Scope parent = new Scope(null);
+        parent.defineFunction("fail", 0, args -> {
+            throw new AssertionError("fail");
+        });
+        ProgramImage image = new ProgramImage(new Ast.Source(Arrays.asList(), Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "fail", Arrays.asList()))
+        )))), parent);
+        try (ScriptExecutor executor = new ScriptExecutor(1)) {
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, executor.submit(image, Map.of())::get);
+            Assertions.assertTrue(exception.getCause() instanceof AssertionError);
+            Assertions.assertEquals(1, executor.getFailed());
+        }
+    }
+
+    @Test
+    void testCloseCancels() throws Exception {
+        // DEF main() DO RETURN main(); END
+        ProgramImage forever = image(new Ast.Statement.Return(new Ast.Expression.Function(Optional.empty(), "main", Arrays.asList())));
+        ScriptExecutor executor = new ScriptExecutor(4);
+        CompletableFuture<Environment.PlcObject> running = executor.submit(forever, Map.of());
+        CompletableFuture<Environment.PlcObject> looping = executor.submit(LOOP, Map.of());
+        executor.close(Duration.ofMillis(50));
+        Assertions.assertEquals(ExecutionLimitException.Limit.CANCELLED, limit(running));
+        Assertions.assertEquals(ExecutionLimitException.Limit.CANCELLED, limit(looping));
+    }
+
+    private static ExecutionLimitException.Limit limit(CompletableFuture<Environment.PlcObject> result) {
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class, result::get);
+        return ((ExecutionLimitException) exception.getCause()).getLimit();
+    }
+
+    private static ProgramImage image(Ast.Statement statement) {
+        return new ProgramImage(new Ast.Source(
+                Arrays.asList(),
+                Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(statement)))
+        ), null);
+    }
+
+}
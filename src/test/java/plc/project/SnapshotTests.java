@@ -0,0 +1,109 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+final class SnapshotTests {
+
+    // LET CONST limit = seed * 100;
+    // LET rate = 1.25;
+    // LET greeting = "Hi";
+    // LET initial = 'x';
+    // LET done = FALSE;
+    // LET unset;
+    // DEF main() DO RETURN limit * 2; END
+    private static final Ast.Source SOURCE = new Ast.Source(
+            Arrays.asList(
+                    new Ast.Field("limit", true, Optional.of(new Ast.Expression.Binary("*", access("seed"), new Ast.Expression.Literal(BigInteger.valueOf(100))))),
+                    new Ast.Field("rate", false, Optional.of(new Ast.Expression.Literal(new BigDecimal("1.25")))),
+                    new Ast.Field("greeting", false, Optional.of(new Ast.Expression.Literal("Hi"))),
+                    new Ast.Field("initial", false, Optional.of(new Ast.Expression.Literal('x'))),
+                    new Ast.Field("done", false, Optional.of(new Ast.Expression.Literal(false))),
+                    new Ast.Field("unset", false, Optional.empty())
+            ),
+            Arrays.asList(new Ast.Method("main", Arrays.asList(), Arrays.asList(
+                    new Ast.Statement.Return(new Ast.Expression.Binary("*", access("limit"), new Ast.Expression.Literal(BigInteger.valueOf(2))))
+            )))
+    );
+
+    @Test
+    void testRestore() throws IOException {
+        Scope parent = new Scope(null);
+        parent.defineVariable("seed", true, Environment.create(BigInteger.valueOf(7)));
+        Interpreter cold = new Interpreter(parent);
+        cold.load(SOURCE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.of(cold, SOURCE).write(out);
+
+        //seed is not defined, so the fields cannot be evaluated again
+        Interpreter warm = new Interpreter(new Scope(null));
+        warm.load(SOURCE, Snapshot.read(new ByteArrayInputStream(out.toByteArray())));
+        Assertions.assertEquals(BigInteger.valueOf(1400), warm.call("main", List.of()).getValue());
+        Scope scope = warm.getScope();
+        Assertions.assertTrue(scope.lookupVariable("limit").getConstant());
+        Assertions.assertEquals("Hi", scope.lookupVariable("greeting").getValue().getValue());
+        Assertions.assertEquals(new BigDecimal("1.25"), scope.lookupVariable("rate").getValue().getValue());
+        Assertions.assertEquals('x', scope.lookupVariable("initial").getValue().getValue());
+        Assertions.assertEquals(false, scope.lookupVariable("done").getValue().getValue());
+        Assertions.assertEquals(Environment.NIL.getValue(), scope.lookupVariable("unset").getValue().getValue());
+    }
+
+    @Test
+    void testMismatch() throws IOException {
+        Scope parent = new Scope(null);
+        parent.defineVariable("seed", true, Environment.create(BigInteger.ONE));
+        Interpreter interpreter = new Interpreter(parent);
+        interpreter.load(SOURCE);
+        Snapshot snapshot = Snapshot.of(interpreter, SOURCE);
+        Ast.Source other = new Ast.Source(SOURCE.getFields().subList(1, 6), SOURCE.getMethods());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Interpreter(new Scope(null)).load(other, snapshot));
+        Assertions.assertThrows(IOException.class, () -> Snapshot.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5})));
+        //same names, but limit would no longer be seed * 100
+        List<Ast.Field> fields = new ArrayList<>(SOURCE.getFields());
+        fields.set(0, new Ast.Field("limit", true, Optional.of(new Ast.Expression.Binary("*", access("seed"), new Ast.Expression.Literal(BigInteger.valueOf(10))))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Interpreter(new Scope(null)).load(new Ast.Source(fields, SOURCE.getMethods()), snapshot));
+    }
+
+    @Test
+    void testCorrupt() throws IOException {
+        Scope parent = new Scope(null);
+        parent.defineVariable("seed", true, Environment.create(BigInteger.ONE));
+        Interpreter interpreter = new Interpreter(parent);
+        interpreter.load(SOURCE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.of(interpreter, SOURCE).write(out);
+        byte[] bytes = out.toByteArray();
+        //the first value is the integer limit, whose length follows its name, constness and type
+        int length = lastIndexOf(bytes, "limit".getBytes()) + "limit".length() + 2;
+        for (int value : new int[] {-1, Integer.MAX_VALUE, 0}) {
+            byte[] corrupt = bytes.clone();
+            ByteBuffer.wrap(corrupt, length, 4).putInt(value);
+            Assertions.assertThrows(IOException.class, () -> Snapshot.read(new ByteArrayInputStream(corrupt)));
+        }
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] part) {
+        for (int i = bytes.length - part.length; i >= 0; i--) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
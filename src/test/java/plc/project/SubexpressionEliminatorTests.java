@@ -0,0 +1,126 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Optional;
+
+final class SubexpressionEliminatorTests {
+
+    @Test
+    void testBlock() {
+        // DEF main(): Integer DO
+        //     LET a = 2; LET b = 3;
+        //     LET x = a * b + 1;
+        //     LET y = (a * b) + 2;
+        //     a = 5;
+        //     LET z = a * b;
+        //     RETURN x + y + z;
+        // END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(method(
+                new Ast.Statement.Declaration("a", Optional.of(literal(2))),
+                new Ast.Statement.Declaration("b", Optional.of(literal(3))),
+                new Ast.Statement.Declaration("x", Optional.of(new Ast.Expression.Binary("+", new Ast.Expression.Binary("*", access("a"), access("b")), literal(1)))),
+                new Ast.Statement.Declaration("y", Optional.of(new Ast.Expression.Binary("+", new Ast.Expression.Group(new Ast.Expression.Binary("*", access("a"), access("b"))), literal(2)))),
+                new Ast.Statement.Assignment(access("a"), literal(5)),
+                new Ast.Statement.Declaration("z", Optional.of(new Ast.Expression.Binary("*", access("a"), access("b")))),
+                new Ast.Statement.Return(new Ast.Expression.Binary("+", new Ast.Expression.Binary("+", access("x"), access("y")), access("z")))
+        )));
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new SubexpressionEliminator().rewrite(ast);
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(rewritten);
+        Assertions.assertEquals(String.join(System.lineSeparator(),
+                "public class Main {",
+                "",
+                "    public static void main(String[] args) {",
+                "        System.exit(new Main().main());",
+                "    }",
+                "",
+                "    int main() {",
+                "        int a = 2;",
+                "        int b = 3;",
+                "        int $cse0 = a * b;",
+                "        int x = $cse0 + 1;",
+                "        int y = $cse0 + 2;",
+                "        a = 5;",
+                "        int z = a * b;",
+                "        return x + y + z;",
+                "    }",
+                "",
+                "}"
+        ), writer.toString());
+        Assertions.assertEquals(BigInteger.valueOf(30), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testCallInvalidatesField() {
+        // VAR g: Integer = 1;
+        // DEF main(): Integer DO
+        //     LET p = g + 1;
+        //     print(p);
+        //     LET q = g + 1;
+        //     RETURN p * q + (p * q);
+        // END
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("g", "Integer", false, Optional.of(literal(1)))),
+                Arrays.asList(method(
+                        new Ast.Statement.Declaration("p", Optional.of(new Ast.Expression.Binary("+", access("g"), literal(1)))),
+                        new Ast.Statement.Expression(new Ast.Expression.Function(Optional.empty(), "print", Arrays.asList(access("p")))),
+                        new Ast.Statement.Declaration("q", Optional.of(new Ast.Expression.Binary("+", access("g"), literal(1)))),
+                        new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                new Ast.Expression.Binary("*", access("p"), access("q")),
+                                new Ast.Expression.Group(new Ast.Expression.Binary("*", access("p"), access("q")))
+                        ))
+                ))
+        );
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new SubexpressionEliminator().rewrite(ast);
+        //g + 1 is computed twice because print could change g, but locals are unaffected
+        Ast.Method method = rewritten.getMethods().get(0);
+        Assertions.assertEquals(5, method.getStatements().size());
+        Assertions.assertEquals("$cse0", ((Ast.Statement.Declaration) method.getStatements().get(3)).getName());
+        Assertions.assertEquals(BigInteger.valueOf(8), ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    @Test
+    void testShortCircuit() {
+        // DEF main(): Integer DO
+        //     LET a = TRUE; LET x: Integer;
+        //     LET p = a || x + 1 > 0;
+        //     LET q = a || x + 1 > 1;
+        //     RETURN 1;
+        // END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(method(
+                new Ast.Statement.Declaration("a", Optional.of(new Ast.Expression.Literal(true))),
+                new Ast.Statement.Declaration("x", Optional.of("Integer"), Optional.empty()),
+                new Ast.Statement.Declaration("p", Optional.of(new Ast.Expression.Binary("||", access("a"),
+                        new Ast.Expression.Binary(">", new Ast.Expression.Binary("+", access("x"), literal(1)), literal(0))))),
+                new Ast.Statement.Declaration("q", Optional.of(new Ast.Expression.Binary("||", access("a"),
+                        new Ast.Expression.Binary(">", new Ast.Expression.Binary("+", access("x"), literal(1)), literal(1))))),
+                new Ast.Statement.Return(literal(1))
+        )));
+        new Analyzer(new Scope(null)).visit(ast);
+        Ast.Source rewritten = new SubexpressionEliminator().rewrite(ast);
+        //x + 1 is never evaluated, and would fail since x is NIL
+        Assertions.assertEquals(5, rewritten.getMethods().get(0).getStatements().size());
+        Assertions.assertEquals(BigInteger.ONE, ((Environment.PlcObject) new Interpreter(new Scope(null)).visit(rewritten)).getValue());
+    }
+
+    private static Ast.Method method(Ast.Statement... statements) {
+        return new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+}
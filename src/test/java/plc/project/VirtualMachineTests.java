@@ -0,0 +1,199 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+final class VirtualMachineTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testSource(String test, Ast.Source ast, Object expected) {
+        VirtualMachine vm = new VirtualMachine(VirtualMachine.compile(ast), new Scope(null));
+        if (expected != null) {
+            Assertions.assertEquals(expected, vm.run().getValue());
+        } else {
+            Assertions.assertThrows(RuntimeException.class, vm::run);
+        }
+    }
+
+    private static Stream<Arguments> testSource() {
+        return Stream.of(
+                // DEF main(): Integer DO RETURN 1 + 2 * 3; END
+                Arguments.of("Arithmetic",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                                        literal(1),
+                                        new Ast.Expression.Binary("*", literal(2), literal(3))
+                                ))
+                        ))),
+                        BigInteger.valueOf(7)
+                ),
+                // LET total = 0; DEF main() DO LET i = 0; WHILE i < 5 DO total = total + i; i = i + 1; END RETURN total; END
+                Arguments.of("While & Field",
+                        new Ast.Source(
+                                Arrays.asList(new Ast.Field("total", "Integer", false, Optional.of(literal(0)))),
+                                Arrays.asList(main(
+                                        new Ast.Statement.Declaration("i", Optional.empty(), Optional.of(literal(0))),
+                                        new Ast.Statement.While(
+                                                new Ast.Expression.Binary("<", access("i"), literal(5)),
+                                                Arrays.asList(
+                                                        new Ast.Statement.Assignment(access("total"), new Ast.Expression.Binary("+", access("total"), access("i"))),
+                                                        new Ast.Statement.Assignment(access("i"), new Ast.Expression.Binary("+", access("i"), literal(1)))
+                                                )
+                                        ),
+                                        new Ast.Statement.Return(access("total"))
+                                ))
+                        ),
+                        BigInteger.valueOf(10)
+                ),
+                // DEF fib(n) DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END DEF main() DO RETURN fib(15); END
+                Arguments.of("Recursion",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(fib(), main(new Ast.Statement.Return(call("fib", literal(15)))))),
+                        BigInteger.valueOf(610)
+                ),
+                // DEF main() DO RETURN TRUE || undefined; END
+                Arguments.of("Or Short Circuit",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("||", new Ast.Expression.Literal(true), access("undefined")))
+                        ))),
+                        true
+                ),
+                // DEF main() DO RETURN "a" + 1.5; END
+                Arguments.of("String Concatenation",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("+", new Ast.Expression.Literal("a"), new Ast.Expression.Literal(new BigDecimal("1.5"))))
+                        ))),
+                        null
+                ),
+                // DEF main() DO RETURN undefined; END
+                Arguments.of("Undefined Variable",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(access("undefined"))
+                        ))),
+                        null
+                ),
+                // DEF main() DO RETURN 1 / 0; END
+                Arguments.of("Division By Zero",
+                        new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                                new Ast.Statement.Return(new Ast.Expression.Binary("/", literal(1), literal(0)))
+                        ))),
+                        null
+                )
+        );
+    }
+
+    @Test
+    void testDeepRecursion() {
+        // DEF count(n) DO IF n == 0 DO RETURN 0; END RETURN 1 + count(n - 1); END DEF main() DO RETURN count(100000); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(
+                new Ast.Method("count", Arrays.asList("n"), Arrays.asList("Integer"), Optional.of("Integer"), Arrays.asList(
+                        new Ast.Statement.If(
+                                new Ast.Expression.Binary("==", access("n"), literal(0)),
+                                Arrays.asList(new Ast.Statement.Return(literal(0))),
+                                Arrays.asList()
+                        ),
+                        new Ast.Statement.Return(new Ast.Expression.Binary("+", literal(1), call("count", new Ast.Expression.Binary("-", access("n"), literal(1)))))
+                )),
+                main(new Ast.Statement.Return(call("count", literal(100000))))
+        ));
+        VirtualMachine vm = new VirtualMachine(VirtualMachine.compile(ast), new Scope(null));
+        Assertions.assertEquals(BigInteger.valueOf(100000), vm.run().getValue());
+    }
+
+    @Test
+    void testExternalFunction() {
+        // DEF main() DO log(1); log("two"); END
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(main(
+                new Ast.Statement.Expression(call("log", literal(1))),
+                new Ast.Statement.Expression(call("log", new Ast.Expression.Literal("two")))
+        )));
+        List<Object> log = new ArrayList<>();
+        Scope scope = new Scope(null);
+        scope.defineFunction("log", 1, args -> {
+            log.add(args.get(0).getValue());
+            return Environment.NIL;
+        });
+        VirtualMachine vm = new VirtualMachine(VirtualMachine.compile(ast), scope);
+        Assertions.assertEquals(Environment.NIL, vm.run());
+        Assertions.assertEquals(Arrays.asList(BigInteger.ONE, "two"), log);
+    }
+
+    @Test
+    void testSerialization() throws IOException {
+        Ast.Source ast = new Ast.Source(
+                Arrays.asList(new Ast.Field("name", "String", true, Optional.of(new Ast.Expression.Literal("fib")))),
+                Arrays.asList(fib(), main(new Ast.Statement.Return(call("fib", literal(10)))))
+        );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VirtualMachine.compile(ast).write(out);
+        VirtualMachine.Program program = VirtualMachine.Program.read(new ByteArrayInputStream(out.toByteArray()));
+        Assertions.assertTrue(program.getConstants().contains("fib"));
+        Assertions.assertEquals(BigInteger.valueOf(55), new VirtualMachine(program, new Scope(null)).run().getValue());
+        Assertions.assertThrows(IOException.class, () -> VirtualMachine.Program.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6})));
+    }
+
+    @Test
+    void testContinuation() {
+        Ast.Source ast = new Ast.Source(Arrays.asList(), Arrays.asList(fib(), main(new Ast.Statement.Return(call("fib", literal(15))))));
+        VirtualMachine vm = new VirtualMachine(VirtualMachine.compile(ast), new Scope(null));
+        VirtualMachine.Continuation continuation = vm.start();
+        Assertions.assertThrows(IllegalStateException.class, continuation::getResult);
+        int slices = 0;
+        while (!continuation.resume(100)) {
+            slices++;
+        }
+        //fib(15) makes 1973 calls
+        Assertions.assertEquals(19, slices);
+        Assertions.assertEquals(BigInteger.valueOf(610), continuation.getResult().getValue());
+        Assertions.assertTrue(continuation.resume(100));
+
+        VirtualMachine.Continuation call = vm.start("fib", Arrays.asList(Environment.create(BigInteger.valueOf(10))));
+        Assertions.assertTrue(call.resume(Long.MAX_VALUE));
+        Assertions.assertEquals(BigInteger.valueOf(55), call.getResult().getValue());
+    }
+
+    private static Ast.Method fib() {
+        return new Ast.Method("fib", Arrays.asList("n"), Arrays.asList("Integer"), Optional.of("Integer"), Arrays.asList(
+                new Ast.Statement.If(
+                        new Ast.Expression.Binary("<", access("n"), literal(2)),
+                        Arrays.asList(new Ast.Statement.Return(access("n"))),
+                        Arrays.asList()
+                ),
+                new Ast.Statement.Return(new Ast.Expression.Binary("+",
+                        call("fib", new Ast.Expression.Binary("-", access("n"), literal(1))),
+                        call("fib", new Ast.Expression.Binary("-", access("n"), literal(2)))
+                ))
+        ));
+    }
+
+    private static Ast.Method main(Ast.Statement... statements) {
+        return new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(statements));
+    }
+
+    private static Ast.Expression.Literal literal(int value) {
+        return new Ast.Expression.Literal(BigInteger.valueOf(value));
+    }
+
+    private static Ast.Expression.Access access(String name) {
+        return new Ast.Expression.Access(Optional.empty(), name);
+    }
+
+    private static Ast.Expression.Function call(String name, Ast.Expression... arguments) {
+        return new Ast.Expression.Function(Optional.empty(), name, Arrays.asList(arguments));
+    }
+
+}